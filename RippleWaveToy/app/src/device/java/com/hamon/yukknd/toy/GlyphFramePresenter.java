@@ -0,0 +1,39 @@
+package com.hamon.yukknd.toy;
+
+import com.nothing.ketchum.GlyphException;
+import com.nothing.ketchum.GlyphMatrixManager;
+
+import com.hamon.yukknd.engine.FramePresenter;
+
+/** Glyph Matrix への出力。setMatrixFrame が失敗したら setAppMatrixFrame を試す。 */
+final class GlyphFramePresenter implements FramePresenter {
+    private final String tag;
+    private volatile GlyphMatrixManager gm;
+    /** setAppMatrixFrame へのフォールバック回数と、それも失敗した回数 (描画スレッドだけが書く)。 */
+    private volatile long fallbacks;
+    private volatile long failures;
+
+    GlyphFramePresenter(String tag) { this.tag = tag; }
+
+    /** 出力先を差し替える。null の間は present が false を返す。 */
+    void setManager(GlyphMatrixManager gm) { this.gm = gm; }
+
+    @Override
+    public boolean present(int[] frame) {
+        final GlyphMatrixManager m = gm;
+        if (m == null) return false;
+        try {
+            m.setMatrixFrame(frame);
+            return true;
+        } catch (GlyphException e) {
+            fallbacks++;
+            android.util.Log.w(tag, "setMatrixFrame failed, trying setAppMatrixFrame: " + e);
+            try { m.setAppMatrixFrame(frame); return true; } catch (GlyphException e2) { android.util.Log.e(tag, "setAppMatrixFrame also failed: " + e2); }
+        }
+        failures++;
+        return false;
+    }
+
+    long getFallbacks() { return fallbacks; }
+    long getFailures() { return failures; }
+}
@@ -3,12 +3,14 @@ package com.hamon.yukknd.toy;
 import android.app.Service;
 import android.content.ComponentName;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.SystemClock;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -21,61 +23,143 @@ import com.nothing.ketchum.GlyphMatrixManager;
 import com.nothing.ketchum.GlyphToy;
 import com.nothing.ketchum.GlyphException;
 
+import com.hamon.yukknd.ToyPreferences;
+import com.hamon.yukknd.engine.FrameDiffer;
+import com.hamon.yukknd.engine.FrameRateGovernor;
+import com.hamon.yukknd.engine.FrameRenderer;
+import com.hamon.yukknd.engine.FrameScheduler;
+import com.hamon.yukknd.engine.FrameSequenceCache;
+import com.hamon.yukknd.engine.FrameStats;
+import com.hamon.yukknd.engine.InputQueue;
+import com.hamon.yukknd.engine.MotionFilter;
+import com.hamon.yukknd.engine.ProfileSwitcher;
+import com.hamon.yukknd.engine.RadialProfileCache;
+import com.hamon.yukknd.engine.RippleEngine;
+import com.hamon.yukknd.engine.UsageMeter;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RippleWaveToyService extends Service {
     private static final String TAG = "HamonToy";
-    private static final int MODE_ZEN = 0;
-    private static final int MODE_HAMON = 1;
-    private static final int MODE_RAIN = 2;
-    private int mode = MODE_ZEN;
-    private GlyphMatrixManager mGM;
+    private static final long FRAME_PERIOD_NANOS = 40_000_000L;
+    private static final float MIN_FPS = 5f;
+    private static final float MAX_FPS = 25f;
+    /** スーパーサンプリング倍率 (1 で無効)。アイドル時のログの renderAvgUs を見て端末ごとに決める。 */
+    private static final int SUPERSAMPLE_FACTOR = 1;
+    private static final int SUPERSAMPLE_FILTER = RippleEngine.FILTER_TENT;
+    /** 計測値の要約を logcat に出す間隔 (0 で出さない)。全期間の値は dumpsys で見る。 */
+    private static final long STATS_LOG_INTERVAL_MS = 10_000L;
+    /**
+     * AOD 中は 25 FPS のループを止め、EVENT_AOD が来るたびに経過時間 × この速さ (基準フレーム / 分) だけ進めて 1 枚描く。
+     * 1 なら従来どおり毎分 1 フレームぶん波が進む。
+     */
+    private static final float AOD_FRAMES_PER_MINUTE = 1f;
+    /** AOD で描く水滴の数 (見えやすい順) と輝度の段階数。 */
+    private static final int AOD_MAX_DROPS = 2;
+    private static final int AOD_LEVELS = 8;
+    /**
+     * 中心水滴の焼いたフレーム列をキャッシュディレクトリのこのファイルに残し、次の起動からはメモリマップして使う。
+     * null ならファイルを使わず、初めて必要になったフレームで描画スレッドが焼く。
+     */
+    private static final String FRAME_SEQUENCE_FILE = "hamon-frames.bin";
+    /** 最後に register できたデバイスコードを残すキー (ToyPreferences の中)。次の接続ではそれを最初に試す。 */
+    private static final String PREF_DEVICE_CODE = "device_code";
+    private static final String[] DEVICE_CODES = new String[] {
+            Glyph.DEVICE_23112,
+            Glyph.DEVICE_23113,
+            Glyph.DEVICE_24111,
+            Glyph.DEVICE_23111,
+            Glyph.DEVICE_22111,
+            Glyph.DEVICE_20111,
+    };
+    /**
+     * 同時に持てる水滴の数。RAIN で古い水滴を置き換えずに済むよう多めに取る (プールは 8 から必要な分だけ広がる)。
+     * 見えなくなった水滴は寿命より前に消えるので、描画コストは見えている水滴の数で決まる。
+     */
+    private static final int MAX_DROPS = 64;
+    /**
+     * 加速度センサー。RAIN / WAVE で AOD でない間だけ登録し、約 16Hz (SENSOR_DELAY_UI 相当) のサンプルを
+     * ハードウェアの FIFO にためて最大 SENSOR_MAX_LATENCY_US ごとにまとめて受け取る (シェイクの反応はその分遅れうる)。
+     */
+    private static final int SENSOR_PERIOD_US = 60_000;
+    private static final int SENSOR_MAX_LATENCY_US = 250_000;
+    /** シェイクとみなす加速度の大きさ (m/s^2) と、次のシェイクまでの間隔。 */
+    private static final float SHAKE_THRESHOLD = 15f;
+    private static final long SHAKE_GUARD_NANOS = 800_000_000L;
+    /** 傾きのローパスの時定数 (秒) と、1G 傾けたときに雨粒の位置をずらす量 (px、0 で無効)。 */
+    private static final float TILT_TIME_CONSTANT = 0.5f;
+    private static final float TILT_BIAS_PX = 3f;
+    /** ずれがこれ以上変わったときだけ描画スレッドに送る (px)。 */
+    private static final float TILT_BIAS_STEP_PX = 0.25f;
+    /** WAVE モードの水面の縁 (RIM_REFLECT で跳ね返し、RIM_ABSORB で吸い込み)。 */
+    private static final int WAVE_RIM = RippleEngine.RIM_REFLECT;
+    /**
+     * engine と renderer は描画スレッド (scheduler) 専用。長押し・AOD・タイマー・シェイクは input に積んで
+     * フレームの先頭でまとめて反映し、接続時の初期化のような一度きりの処理は scheduler.post() で渡す。
+     */
+    private final RippleEngine engine = new RippleEngine(new Random(), MAX_DROPS);
+    private final InputQueue input = new InputQueue(64);
+    private final FrameSequenceCache frameSequences = new FrameSequenceCache();
+    private volatile GlyphMatrixManager mGM;
     private GlyphMatrixManager.Callback mCallback;
     private SensorManager sensorManager;
     private Sensor accelerometer;
-    private static final int W = 25;
-    private static final int H = 25;
-    private static final float CX = (W - 1) * 0.5f;
-    private static final float CY = (H - 1) * 0.5f;
-    private static final float RADIUS = 12.4f;
-    private static final float FPS = 25f;
-    private static class Profile {
-        final float speed;
-        final float sigma;
-        final float damping;
-        Profile(float v, float s, float a){ speed=v; sigma=s; damping=a; }
-    }
-    private final Profile[] profiles = new Profile[] {
-            new Profile(RADIUS / (2.5f * FPS), 1.8f, 0.07f),
-            new Profile(RADIUS / (2.5f * FPS), 1.6f, 0.07f),
-            new Profile(RADIUS / (2.5f * FPS), 2.1f, 0.07f),
+    /** センサーのコールバック (main looper) 専用。計測値は dumpsys からも読む。 */
+    private final MotionFilter motion = new MotionFilter(SHAKE_THRESHOLD, SHAKE_GUARD_NANOS, TILT_TIME_CONSTANT);
+    private float sentBiasX, sentBiasY;
+    private final FrameScheduler scheduler = new FrameScheduler("RippleToyRender", FRAME_PERIOD_NANOS, this::onFrame);
+    /** プロファイルの列を焼くスレッド (init で作り、onUnbind で止める)。描画スレッドより低い優先度で動かす。 */
+    private ExecutorService profileExecutor;
+    private final ProfileSwitcher switcher = new ProfileSwitcher(engine, r -> profileExecutor.execute(r));
+    /**
+     * 設定のプロファイル。トイのボタンは長押し以外がシステムに取られているので、アプリの設定画面 (ProfileSettingsActivity) で変える。
+     * ウォームアップと接続時の prepareScene() はこれで始め、描画中に変わったら ProfileSwitcher が別スレッドで列を焼いてから切り替える。
+     */
+    private volatile int profileSetting;
+    private SharedPreferences prefs;
+    private final SharedPreferences.OnSharedPreferenceChangeListener prefsListener = (sp, key) -> {
+        if (ToyPreferences.PROFILE.equals(key)) onProfileSetting(sp.getInt(ToyPreferences.PROFILE, 0));
     };
-    private int profileIdx = 0;
-    private float t = 0.0f;
-    private float dt = 1.0f;
-    private static class Drop {
-        final float x, y;
-        float age;
-        final float weight;
-        final float sigmaScale;
-        final float speedScale;
-        final float dampingScale;
-        Drop(float x, float y){ this(x, y, 1f, 1f, 1f, 1f); }
-        Drop(float x, float y, float weight, float sigmaScale){ this(x, y, weight, sigmaScale, 1f, 1f); }
-        Drop(float x, float y, float weight, float sigmaScale, float speedScale, float dampingScale){
-            this.x=x; this.y=y; this.age=0f; this.weight=weight; this.sigmaScale=sigmaScale; this.speedScale=speedScale; this.dampingScale=dampingScale;
-        }
-    }
-    private static final int MAX_DROPS = 8;
-    private final Drop[] drops = new Drop[MAX_DROPS];
-    private Timer timer;
     private Timer autoDropTimer;
-    private boolean isAodMode = false;
-    private final Random random = new Random();
-    private long lastShakeMs = 0L;
-    private final int[] frameBuf = new int[W * H];
+    private volatile boolean isAodMode = false;
+    /** main looper 側で把握しているモード。engine へは scheduler 経由で反映する。 */
+    private int mode = RippleEngine.MODE_ZEN;
+    private final GlyphFramePresenter glyphPresenter = new GlyphFramePresenter(TAG);
+    private final FrameRenderer renderer = new FrameRenderer(engine, glyphPresenter);
+    private final FrameRateGovernor governor = new FrameRateGovernor(MIN_FPS, MAX_FPS);
+    /** 描画スレッドだけが書く。totalStats は接続から、windowStats は前回のログから。 */
+    private final FrameStats totalStats = new FrameStats();
+    private final FrameStats windowStats = new FrameStats();
+    private final StringBuilder statsLine = new StringBuilder(256);
+    private long lastFallbacks;
+    private long nextStatsLogNanos;
+    /** 描画スレッド側の AOD 状態。isAodMode (main looper 側) に次のフレームで追従する。 */
+    private boolean aodRendering = false;
+    private long lastAodFrameNanos;
+    private float aodFrameDebt;
+    /** 今の区間 (AOD / 通常) の描画回数と CPU 時間。区間が終わるたびに要約を残す。 */
+    private final UsageMeter usage = new UsageMeter();
+    private volatile String lastAodUsage = "-";
+    private volatile String lastActiveUsage = "-";
+    /**
+     * 起動時のウォームアップ。mGM.init() と並行して engine のテーブルを作り、接続直後のシーンを用意して最初の 1 枚を firstFrame に描く。
+     * 終わるまで engine と renderer はこのスレッドのもので、接続時に main looper が join して引き継ぐ。
+     */
+    private Thread warmUp;
+    private final int[] firstFrame = new int[RippleEngine.W * RippleEngine.H];
+    /** 起動の各段階の時刻 (System.nanoTime)。startupLine は最後の起動の要約 (dumpsys 用)。 */
+    private long bindNanos;
+    private long initNanos;
+    private volatile long warmUpNanos;
+    private volatile String startupLine = "-";
     private final Handler serviceHandler = new Handler(Looper.getMainLooper()) {
         @Override public void handleMessage(Message msg) {
             if (msg.what == GlyphToy.MSG_GLYPH_TOY) {
@@ -84,11 +168,9 @@ public class RippleWaveToyService extends Service {
                 if (GlyphToy.EVENT_CHANGE.equals(event)) {
                     onLongPress();
                 } else if (GlyphToy.EVENT_AOD.equals(event)) {
-                    isAodMode = true;
-                    step();
-                    renderAndPresent();
+                    onAod();
                 } else {
-                    isAodMode = false;
+                    onActive();
                 }
             } else {
                 super.handleMessage(msg);
@@ -105,9 +187,15 @@ public class RippleWaveToyService extends Service {
 
     @Override
     public boolean onUnbind(Intent intent) {
-        stopTimer();
+        scheduler.stop(500L);
+        // 接続前に外された場合も、次の bind のウォームアップと engine を取り合わないよう終わるのを待つ
+        joinWarmUp();
         stopAutoDropTimer();
         teardownSensors();
+        if (prefs != null) prefs.unregisterOnSharedPreferenceChangeListener(prefsListener);
+        if (profileExecutor != null) profileExecutor.shutdownNow();
+        profileExecutor = null;
+        glyphPresenter.setManager(null);
         if (mGM != null) { mGM.unInit(); }
         mGM = null;
         mCallback = null;
@@ -115,84 +203,275 @@ public class RippleWaveToyService extends Service {
     }
 
     private void init() {
+        bindNanos = System.nanoTime();
+        engine.setFrameSequenceCache(frameSequences);
+        profileExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "RippleProfile");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        switcher.setOnReady(scheduler::wake);
+        prefs = ToyPreferences.get(this);
+        profileSetting = clampProfile(prefs.getInt(ToyPreferences.PROFILE, 0));
+        prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+        startWarmUp();
         mGM = GlyphMatrixManager.getInstance(getApplicationContext());
         mCallback = new GlyphMatrixManager.Callback() {
             @Override public void onServiceConnected(ComponentName name) {
-                boolean registered = tryRegisterWithFallback();
-                android.util.Log.d(TAG, "onServiceConnected, registered=" + registered);
-                if (!registered) return;
+                final long connected = System.nanoTime();
+                final int tries = tryRegisterWithFallback();
+                final long registered = System.nanoTime();
+                android.util.Log.d(TAG, "onServiceConnected, registered=" + (tries > 0));
+                if (tries <= 0) return;
+                glyphPresenter.setManager(mGM);
                 isAodMode = false;
-                resetScene();
-                mode = MODE_ZEN;
-                spawnTick();
-                renderAndPresent();
-                startTimer(40);
+                mode = RippleEngine.MODE_ZEN;
+                // 描画スレッドが engine に触る前に、必ずウォームアップを終わらせる
+                final boolean warm = joinWarmUp() && !scheduler.isRunning();
+                final long joined = System.nanoTime();
+                if (warm) {
+                    // 描画スレッドはまだ無いので、ここで engine と renderer を引き継いで用意済みの 1 枚を出し、次の周期から描画スレッドに渡す
+                    input.discard();
+                    resetAfterConnect();
+                    renderer.presentFrame(firstFrame);
+                    scheduler.start(FRAME_PERIOD_NANOS);
+                } else {
+                    scheduler.post(() -> {
+                        input.discard();
+                        prepareScene();
+                        resetAfterConnect();
+                    });
+                    scheduler.start();
+                }
+                final long firstFrameAt = System.nanoTime();
                 startAutoDropTimer(10_000L, 10_000L);
                 setupSensors();
+                motion.start(System.nanoTime());
+                logStartup(connected, registered, tries, joined, warm, firstFrameAt);
             }
             @Override public void onServiceDisconnected(ComponentName name) { }
         };
         mGM.init(mCallback);
+        initNanos = System.nanoTime();
     }
 
-    private boolean tryRegisterWithFallback() {
-        String[] candidates = new String[] {
-                Glyph.DEVICE_23112,
-                Glyph.DEVICE_23113,
-                Glyph.DEVICE_24111,
-                Glyph.DEVICE_23111,
-                Glyph.DEVICE_22111,
-                Glyph.DEVICE_20111,
-        };
-        for (String code : candidates) {
+    /** 接続直後のシーン (ZEN、中心に 1 滴) を作る。engine の持ち主のスレッドで呼ぶ。 */
+    private void prepareScene() {
+        engine.resetScene();
+        engine.setMode(RippleEngine.MODE_ZEN);
+        engine.setProfile(profileSetting);
+        engine.setSupersampling(SUPERSAMPLE_FACTOR, SUPERSAMPLE_FILTER);
+        engine.setWaveRim(WAVE_RIM);
+        engine.spawnTick();
+    }
+
+    /** 接続時に描画まわりの状態と計測を初期化する。engine の持ち主のスレッドで呼ぶ。 */
+    private void resetAfterConnect() {
+        renderer.invalidate();
+        resetFrameRate();
+        resetStats();
+        if (aodRendering) { aodRendering = false; engine.setLowPowerRender(0, 0); }
+        usage.start(System.nanoTime(), android.os.Process.getElapsedCpuTime(), renderer.getFramesRendered());
+    }
+
+    /**
+     * ウォームアップを始める。焼いたフレーム列のファイルがあればこのスレッドでマップし、
+     * 無ければ (初回や読めなかったとき) 今のプロファイルの ZEN と HAMON の列をここで焼く
+     * (ファイルは別スレッドが全プロファイル分を焼いて書き出す)。描画スレッドで焼くことはない。
+     * そのあと接続直後のシーンを 1 フレーム進めたところ (描画スレッドの最初のフレームと同じ) を firstFrame に描く。
+     * 描画スレッドが動いている間は engine に触れないので何もしない。
+     */
+    private void startWarmUp() {
+        if (scheduler.isRunning()) return;
+        final File file = FRAME_SEQUENCE_FILE != null ? new File(getCacheDir(), FRAME_SEQUENCE_FILE) : null;
+        final boolean map = file != null && file.isFile();
+        if (file != null && !map) startBaker(file);
+        warmUpNanos = 0L;
+        warmUp = new Thread(() -> {
+            final long start = System.nanoTime();
+            if (!(map && mapFrameSequences(file))) {
+                if (map) startBaker(file);
+                engine.bakeFrameSequences(frameSequences, profileSetting);
+            }
+            prepareScene();
+            engine.step();
+            engine.render(firstFrame);
+            warmUpNanos = System.nanoTime() - start;
+        }, "RippleWarmUp");
+        warmUp.start();
+    }
+
+    /** ウォームアップが終わるまで待つ (計算だけなので、待つのは mGM.init() より長くかかったときだけ)。 */
+    private boolean joinWarmUp() {
+        final Thread t = warmUp;
+        if (t == null) return false;
+        warmUp = null;
+        try {
+            t.join();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 起動の各段階の時間を 1 行にしてログに出す。目標は接続 (onServiceConnected) から最初の 1 枚まで 1 フレーム (40ms) 以内。
+     */
+    private void logStartup(long connected, long registered, int tries, long joined, boolean warm, long firstFrameAt) {
+        final long firstMs = (firstFrameAt - connected) / 1_000_000L;
+        final String line = "bind->init=" + (initNanos - bindNanos) / 1_000_000L + "ms"
+                + " warmUp=" + warmUpNanos / 1_000_000L + "ms"
+                + " init->connected=" + (connected - initNanos) / 1_000_000L + "ms"
+                + " register=" + (registered - connected) / 1_000_000L + "ms(tries=" + tries + ")"
+                + " waitWarmUp=" + (joined - registered) / 1_000_000L + "ms"
+                + " connected->firstFrame=" + firstMs + "ms" + (warm ? "" : "(cold)")
+                + (firstMs * 1_000_000L <= FRAME_PERIOD_NANOS ? "" : " SLOW")
+                + " bind->firstFrame=" + (firstFrameAt - bindNanos) / 1_000_000L + "ms";
+        startupLine = line;
+        android.util.Log.i(TAG, "startup " + line);
+    }
+
+    /**
+     * 中心水滴のフレーム列を別スレッドの RippleEngine で全部焼いて書き出し、描画スレッドでマップさせる (描画スレッドの engine には触らない)。
+     * 焼くときのヒープの上限は描画用のキャッシュと同じ (収まらないプロファイルは、切り替えたときに ProfileSwitcher が焼く)。
+     */
+    private void startBaker(final File file) {
+        Thread baker = new Thread(() -> {
+            final long start = System.nanoTime();
+            final FrameSequenceCache all = new FrameSequenceCache(frameSequences.getBudgetBytes());
+            final int baked = new RippleEngine().bakeFrameSequences(all);
+            final File tmp = new File(file.getPath() + ".tmp");
             try {
-                boolean ok = mGM.register(code);
-                if (ok) {
-                    android.util.Log.i(TAG, "Registered target=" + code);
-                    try { mGM.setGlyphMatrixTimeout(false); } catch (GlyphException ignore) {}
-                    return true;
-                }
-            } catch (Throwable t) {
-                android.util.Log.w(TAG, "register failed for code=" + code + ", " + t);
+                all.save(tmp);
+                if (!tmp.renameTo(file)) throw new IOException("rename failed: " + tmp);
+            } catch (IOException e) {
+                android.util.Log.w(TAG, "frame sequences not saved: " + e);
+                tmp.delete();
+                return;
+            }
+            android.util.Log.i(TAG, "baked " + baked + " frame sequences in " + (System.nanoTime() - start) / 1_000_000L
+                    + "ms, " + file.length() + " bytes");
+            scheduler.post(() -> mapFrameSequences(file));
+        }, "RippleBake");
+        baker.setPriority(Thread.MIN_PRIORITY);
+        baker.start();
+    }
+
+    /**
+     * engine の持ち主のスレッド (起動時はウォームアップ、その後は描画スレッド)。読めないファイル (古い形式など) は消して、次の起動で焼き直させる。
+     * マップできたら true。
+     */
+    private boolean mapFrameSequences(File file) {
+        try {
+            int mapped = frameSequences.map(file);
+            android.util.Log.i(TAG, "mapped " + mapped + " frame sequences, " + frameSequences.getMappedBytes() + " bytes");
+            return true;
+        } catch (IOException e) {
+            android.util.Log.w(TAG, "frame sequences not mapped: " + e);
+            file.delete();
+            return false;
+        }
+    }
+
+    /**
+     * 前回 register できたデバイスコードを先に、残りを DEVICE_CODES の順に試す。成功したコードは次の接続のために残す。
+     * 戻り値は成功までに試した数 (失敗なら 0)。
+     */
+    private int tryRegisterWithFallback() {
+        final String cached = prefs != null ? prefs.getString(PREF_DEVICE_CODE, null) : null;
+        int tries = 0;
+        if (cached != null) {
+            tries++;
+            if (tryRegister(cached)) return tries;
+        }
+        for (String code : DEVICE_CODES) {
+            if (code.equals(cached)) continue;
+            tries++;
+            if (tryRegister(code)) {
+                if (prefs != null) prefs.edit().putString(PREF_DEVICE_CODE, code).apply();
+                return tries;
             }
         }
         android.util.Log.e(TAG, "All register candidates failed.");
+        return 0;
+    }
+
+    private boolean tryRegister(String code) {
+        try {
+            if (mGM.register(code)) {
+                android.util.Log.i(TAG, "Registered target=" + code);
+                try { mGM.setGlyphMatrixTimeout(false); } catch (GlyphException ignore) {}
+                return true;
+            }
+        } catch (Throwable t) {
+            android.util.Log.w(TAG, "register failed for code=" + code + ", " + t);
+        }
         return false;
     }
 
     private void onLongPress() {
         android.util.Log.d(TAG, "EVENT_CHANGE long-press");
-        mode = (mode + 1) % 3;
-        switch (mode) {
-            case MODE_ZEN:
+        mode = (mode + 1) % RippleEngine.MODE_COUNT;
+        final int next = mode;
+        switch (next) {
+            case RippleEngine.MODE_ZEN:
                 android.util.Log.i(TAG, "Switch to ZEN mode");
                 startAutoDropTimer(10_000L, 10_000L);
+                submit(input.offerSetMode(next));
                 break;
-            case MODE_HAMON:
+            case RippleEngine.MODE_HAMON:
                 android.util.Log.i(TAG, "Switch to HAMON mode");
                 startAutoDropTimer(10_000L, 10_000L);
-                spawnTick();
+                submit(input.offerSetMode(next) && input.offerSpawnTick());
                 break;
-            case MODE_RAIN:
+            case RippleEngine.MODE_RAIN:
                 android.util.Log.i(TAG, "Switch to RAIN mode");
                 startAutoDropTimer(200L, 1400L);
-                spawnRainBurst(3);
+                submit(input.offerSetMode(next) && input.offerRainBurst(3));
+                break;
+            case RippleEngine.MODE_WAVE:
+                android.util.Log.i(TAG, "Switch to WAVE mode");
+                startAutoDropTimer(200L, 1400L);
+                submit(input.offerSetMode(next) && input.offerRainBurst(3));
                 break;
         }
+        updateSensors();
     }
 
-    private void startTimer(long periodMs) {
-        stopTimer();
-        timer = new Timer("RippleToyTimer");
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override public void run() {
-                step();
-                renderAndPresent();
-            }
-        }, 0, periodMs);
+    /** AOD に入る (または AOD 中の毎分のイベント)。自動落下タイマーを止め、描画スレッドに AOD の 1 枚を描かせる。 */
+    private void onAod() {
+        if (!isAodMode) {
+            android.util.Log.d(TAG, "enter AOD");
+            isAodMode = true;
+            stopAutoDropTimer();
+            updateSensors();
+        }
+        scheduler.wake();
     }
-    private void stopTimer() {
-        if (timer != null) { try { timer.cancel(); } catch (Throwable ignored) {} timer = null; }
+
+    /** AOD から戻る。タイマーを今のモードの間隔で再開し、通常の描画ループを起こす。 */
+    private void onActive() {
+        if (!isAodMode) return;
+        android.util.Log.d(TAG, "leave AOD");
+        isAodMode = false;
+        if (RippleEngine.isRainMode(mode)) startAutoDropTimer(200L, 1400L);
+        else startAutoDropTimer(10_000L, 10_000L);
+        updateSensors();
+        scheduler.wake();
+    }
+
+    /** 設定のプロファイルが変わった (main looper)。描画スレッドで切り替えを予約する。 */
+    private void onProfileSetting(int idx) {
+        final int next = clampProfile(idx);
+        if (next == profileSetting) return;
+        profileSetting = next;
+        android.util.Log.i(TAG, "Switch to profile " + next);
+        scheduler.post(() -> switcher.request(next));
+    }
+
+    private int clampProfile(int idx) {
+        return Math.max(0, Math.min(engine.getProfileCount() - 1, idx));
     }
 
     private void startAutoDropTimer(long initialDelayMs, long periodMs) {
@@ -200,7 +479,7 @@ public class RippleWaveToyService extends Service {
         autoDropTimer = new Timer("RippleAutoDrop");
         autoDropTimer.scheduleAtFixedRate(new TimerTask() {
             @Override public void run() {
-                if (!isAodMode) { serviceHandler.post(() -> spawnTick()); }
+                if (!isAodMode) { submit(input.offerSpawnTick()); }
             }
         }, initialDelayMs, periodMs);
     }
@@ -208,186 +487,242 @@ public class RippleWaveToyService extends Service {
         if (autoDropTimer != null) { try { autoDropTimer.cancel(); } catch (Throwable ignored) {} autoDropTimer = null; }
     }
 
-    private void step() {
-        t += dt;
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] != null) drops[i].age += dt;
-        }
-        removeFadedDrops();
-    }
-
-    private void resetScene() {
-        t = 0f;
-        for (int i = 0; i < drops.length; i++) drops[i] = null;
-    }
-
-    private void addDrop(float x, float y) { addDrop(x, y, 1f, 1f); }
-    private void addDrop(float x, float y, float weight, float sigmaScale) { addDrop(x, y, weight, sigmaScale, 1f, 1f); }
-    private void addDrop(float x, float y, float weight, float sigmaScale, float speedScale, float dampingScale) {
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] == null) { drops[i] = new Drop(x, y, weight, sigmaScale, speedScale, dampingScale); return; }
-        }
-        int oldest = 0;
-        float maxAge = -1f;
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] != null && drops[i].age > maxAge) { maxAge = drops[i].age; oldest = i; }
-        }
-        final float MIN_REPLACE_AGE_FRAMES = 50f;
-        if (mode == MODE_RAIN && maxAge < MIN_REPLACE_AGE_FRAMES) {
-            int youngest = 0;
-            float minAge = Float.MAX_VALUE;
-            for (int i = 0; i < drops.length; i++) {
-                if (drops[i] != null && drops[i].age < minAge) { minAge = drops[i].age; youngest = i; }
-            }
-            if (minAge < MIN_REPLACE_AGE_FRAMES * 0.5f) { return; }
-        }
-        drops[oldest] = new Drop(x, y, weight, sigmaScale, speedScale, dampingScale);
-    }
-
-    private void removeFadedDrops() {
-        for (int i = 0; i < drops.length; i++) {
-            Drop d = drops[i];
-            if (d == null) continue;
-            if (d.age > 520f) { drops[i] = null; }
-        }
-    }
-
-    private void spawnTick() {
-        if (mode == MODE_RAIN) { spawnRainStep(); }
-        else { addDrop(CX, CY); }
-    }
-    private void spawnRainBurst(int count) { for (int k = 0; k < count; k++) addRainRandomDrop(); }
-    private void spawnRainStep() {
-        double u = random.nextDouble();
-        int n;
-        if (u < 0.35) n = 0;
-        else if (u < 0.85) n = 1;
-        else if (u < 0.97) n = 2;
-        else n = 3;
-        for (int i = 0; i < n; i++) addRainRandomDrop();
-    }
-    private void addRainRandomDrop() {
-        double theta = 2.0 * Math.PI * random.nextDouble();
-        double rad = RADIUS * Math.sqrt(random.nextDouble());
-        float x = clamp((float)(CX + rad * Math.cos(theta)), 0f, W - 1);
-        float y = clamp((float)(CY + rad * Math.sin(theta)), 0f, H - 1);
-        float weight = 0.8f + (random.nextFloat() * 0.6f);
-        if (random.nextFloat() < 0.10f) weight = 1.3f + random.nextFloat() * 0.5f;
-        float sigmaScale = 1.0f + (random.nextFloat() * 0.35f);
-        float speedScale = 1.02f + (random.nextFloat() * 0.24f);
-        if (random.nextFloat() < 0.06f) speedScale = 0.92f + (random.nextFloat() * 0.10f);
-        float dampingScale = 0.9f + (random.nextFloat() * 0.3f);
-        addDrop(x, y, weight, sigmaScale, speedScale, dampingScale);
-    }
-
-    private static float clamp(float v, float lo, float hi) { return v < lo ? lo : (v > hi ? hi : v); }
-
+    /** 加速度センサーを探すだけで、登録は updateSensors() が今のモードを見て決める。 */
     private void setupSensors() {
         try {
             sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
             if (sensorManager != null) {
                 accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
                 if (accelerometer != null) {
-                    sensorManager.registerListener(shakeListener, accelerometer, SensorManager.SENSOR_DELAY_UI);
+                    android.util.Log.d(TAG, "accelerometer fifoMaxEvents=" + accelerometer.getFifoMaxEventCount());
                 }
             }
         } catch (Throwable ignored) {}
+        updateSensors();
     }
     private void teardownSensors() {
-        try { if (sensorManager != null) sensorManager.unregisterListener(shakeListener); } catch (Throwable ignored) {}
+        try { if (sensorManager != null) sensorManager.unregisterListener(motionListener); } catch (Throwable ignored) {}
+        motion.setRegistered(false, System.nanoTime());
+        android.util.Log.i(TAG, "sensor: " + motion.appendSummary(new StringBuilder(), System.nanoTime()));
         accelerometer = null;
         sensorManager = null;
     }
 
-    private final SensorEventListener shakeListener = new SensorEventListener() {
+    /** シェイクと傾きを使うモード (RAIN / WAVE) で AOD でない間だけリスナーを登録する。main looper で呼ぶ。 */
+    private void updateSensors() {
+        final boolean want = accelerometer != null && mGM != null && !isAodMode && RippleEngine.isRainMode(mode);
+        if (want == motion.isRegistered()) return;
+        try {
+            if (want) {
+                motion.resetTilt();
+                if (!sensorManager.registerListener(motionListener, accelerometer, SENSOR_PERIOD_US, SENSOR_MAX_LATENCY_US)) return;
+            } else {
+                sensorManager.unregisterListener(motionListener);
+            }
+            motion.setRegistered(want, System.nanoTime());
+        } catch (Throwable t) {
+            android.util.Log.w(TAG, "sensor " + (want ? "register" : "unregister") + " failed: " + t);
+        }
+    }
+
+    private final SensorEventListener motionListener = new SensorEventListener() {
         @Override public void onSensorChanged(SensorEvent event) {
-            float ax = event.values[0], ay = event.values[1], az = event.values[2];
-            float g = (float)Math.sqrt(ax*ax + ay*ay + az*az);
-            long now = System.currentTimeMillis();
-            if (g > 15.0f && now - lastShakeMs > 800) {
-                lastShakeMs = now;
-                if (!isAodMode && mode == MODE_RAIN) spawnRainBurst(8);
+            final float[] v = event.values;
+            if (motion.onSample(v[0], v[1], v[2], event.timestamp, SystemClock.elapsedRealtimeNanos())
+                    && !isAodMode && RippleEngine.isRainMode(mode)) {
+                submit(input.offerShake(8));
             }
+            updateRainBias();
         }
         @Override public void onAccuracyChanged(Sensor sensor, int accuracy) {}
     };
 
-    private void renderAndPresent() {
-        if (mGM == null) return;
-        final Profile pf = profiles[profileIdx];
-        final float v  = pf.speed;
-        final float a  = pf.damping;
-        final float sigma = pf.sigma;
-        int idx = 0;
-        for (int j = 0; j < H; j++) {
-            for (int i = 0; i < W; i++, idx++) {
-                float dx = i - CX;
-                float dy = j - CY;
-                float rFromCenter = (float)Math.sqrt(dx*dx + dy*dy);
-                if (rFromCenter > RADIUS + 1.2f) { frameBuf[idx] = 0; continue; }
-                float mask = smoothstep(RADIUS + 1.2f, RADIUS - 0.2f, rFromCenter);
-                float sum = 0f;
-                for (Drop d : drops) {
-                    if (d == null) continue;
-                    float rx = i - d.x;
-                    float ry = j - d.y;
-                    float r  = (float)Math.sqrt(rx*rx + ry*ry);
-                    float vDrop = v * d.speedScale;
-                    float aDrop = a / d.dampingScale;
-                    float r0 = vDrop * d.age;
-                    float dr0 = r - r0;
-                    float sig0 = sigma * (d.sigmaScale);
-                    float shell0 = (float)Math.exp(-0.5f * (dr0 * dr0) / (sig0 * sig0));
-                    float amp0 = (float)Math.exp(-aDrop * r) * envelope(d.age / d.dampingScale) * d.weight;
-                    sum += amp0 * shell0;
-                    if (mode == MODE_HAMON) {
-                        float delta = 3.8f;
-                        int trails = 3;
-                        for (int k = 1; k <= trails; k++) {
-                            float rk = r0 - k * delta;
-                            if (rk < 0f) break;
-                            float drk = r - rk;
-                            float sigmak = (sigma * (1.0f + 0.25f * k)) * d.sigmaScale;
-                            float shellk = (float)Math.exp(-0.5f * (drk * drk) / (sigmak * sigmak));
-                            float envk = envelope(Math.max(0f, (d.age - 2.0f * k)) / d.dampingScale);
-                            float dampk = (float)Math.exp(-aDrop * r);
-                            float gaink = (float)Math.pow(0.72f, k) * d.weight;
-                            sum += gaink * dampk * envk * shellk;
-                        }
-                    }
-                }
-                float baseN = 0.00f;
-                float gain  = 1.10f;
-                float valN  = baseN + gain * sum;
-                valN *= mask;
-                if (valN < 0f) valN = 0f;
-                if (valN > 1f) valN = 1f;
-                int brightness = (int)(valN * 2040f + 0.5f);
-                if (brightness < 0) brightness = 0;
-                if (brightness > 2040) brightness = 2040;
-                frameBuf[idx] = brightness;
-            }
+    /**
+     * 傾きで雨粒を低い側に寄せる。マトリックスは背面にあるので、背面から見た左右は端末の x と逆になる
+     * (x 軸の向きが下がる = 背面から見て左が下がる)。y は画面の上が下がると加速度が負になり、マトリックスの上 (-y) に寄せる。
+     * 描画スレッドはアイドルでもよい (次に雨粒を出すフレームで反映される) ので起こさない。
+     */
+    private void updateRainBias() {
+        final float bx = motion.getTiltX() * TILT_BIAS_PX;
+        final float by = motion.getTiltY() * TILT_BIAS_PX;
+        if (Math.abs(bx - sentBiasX) < TILT_BIAS_STEP_PX && Math.abs(by - sentBiasY) < TILT_BIAS_STEP_PX) return;
+        if (input.offerRainBias(bx, by)) {
+            sentBiasX = bx;
+            sentBiasY = by;
         }
-        try {
-            mGM.setMatrixFrame(frameBuf);
-        } catch (GlyphException e) {
-            android.util.Log.w(TAG, "setMatrixFrame failed, trying setAppMatrixFrame: " + e);
-            try { mGM.setAppMatrixFrame(frameBuf); } catch (GlyphException e2) { android.util.Log.e(TAG, "setAppMatrixFrame also failed: " + e2); }
+    }
+
+    /** input に積んだあと描画スレッドを起こす。キューが満杯で捨てた入力はログに残す。 */
+    private void submit(boolean offered) {
+        if (!offered) android.util.Log.w(TAG, "input queue full, overflows=" + input.getOverflows());
+        scheduler.wake();
+    }
+
+    /**
+     * 描画スレッド。たまった入力を反映してから、経過した周期数 × stride ぶん (基準 25 FPS のフレーム数) シミュレーションを進めて描画し、
+     * governor が選んだレートに周期を合わせる。プロファイルの切り替えは準備ができていればフレームの先頭で反映し、
+     * 切り替えの前後のフレーム時間を switcher に渡す。
+     */
+    private void onFrame(int ticks) {
+        if (isAodMode) { onAodFrame(); return; }
+        if (aodRendering) leaveAodRendering();
+        final long start = System.nanoTime();
+        switcher.applyPending();
+        final int stride = governor.getStride();
+        input.drain(engine);
+        engine.step(ticks * stride);
+        if (renderAndPresent()) recordStats(ticks);
+        if (governor.update(ticks * stride, engine.liveDropCount(), engine.maxRingSpeed(), renderer.getDiffer().getLastMaxDelta())) {
+            scheduler.setPeriodNanos(FRAME_PERIOD_NANOS * governor.getStride());
+            android.util.Log.d(TAG, "frame rate -> " + governor.getFps() + " fps");
+        }
+        if (switcher.recordFrame(System.nanoTime() - start)) android.util.Log.i(TAG, switcher.getLastSummary());
+    }
+
+    /**
+     * AOD 中の 1 枚。前回の AOD フレームからの経過時間ぶんだけ解析的に進め (step は年齢を足すだけなので、何分空いても 1 回で済む)、
+     * 低コスト描画 (水滴 AOD_MAX_DROPS 個・AOD_LEVELS 段階) で描いたら、次のイベントまでループを止める。
+     */
+    private void onAodFrame() {
+        final long now = System.nanoTime();
+        input.drain(engine);
+        if (!aodRendering) {
+            aodRendering = true;
+            engine.setLowPowerRender(AOD_MAX_DROPS, AOD_LEVELS);
+            aodFrameDebt = 0f;
+            lastActiveUsage = finishUsage(now, "active");
+        } else {
+            aodFrameDebt += (now - lastAodFrameNanos) * (AOD_FRAMES_PER_MINUTE / 60e9f);
+            final int frames = (int)aodFrameDebt;
+            if (frames > 0) {
+                aodFrameDebt -= frames;
+                engine.step(frames);
+            }
         }
+        lastAodFrameNanos = now;
+        if (mGM != null) renderer.renderFrame();
+        scheduler.requestIdle();
+        if (!input.isEmpty()) scheduler.wake();
     }
 
-    private static float smoothstep(float edge0, float edge1, float x) {
-        float t = clamp01((x - edge0) / (edge1 - edge0));
-        return t * t * (3f - 2f * t);
+    private void leaveAodRendering() {
+        aodRendering = false;
+        engine.setLowPowerRender(0, 0);
+        lastAodUsage = finishUsage(System.nanoTime(), "AOD");
+        resetFrameRate();
     }
-    private static float clamp01(float v) { return v < 0f ? 0f : (v > 1f ? 1f : v); }
-    private static float envelope(float age) {
-        float attack = 4f;
-        float fade   = 0.0065f;
-        float att = 1f - (float)Math.exp(-age / attack);
-        float rel = (float)Math.exp(-fade * age);
-        return att * rel;
+
+    /** 今の区間の使用量をログに出して新しい区間を始める。戻り値は要約。 */
+    private String finishUsage(long now, String label) {
+        final long cpuMs = android.os.Process.getElapsedCpuTime();
+        final long renders = renderer.getFramesRendered();
+        final String summary = usage.appendSummary(new StringBuilder(), now, cpuMs, renders).toString();
+        android.util.Log.i(TAG, "usage " + label + ": " + summary);
+        usage.start(now, cpuMs, renders);
+        return summary;
     }
-}
 
+    private void recordStats(int ticks) {
+        final long present = renderer.getLastPresentNanos();
+        final long fallbacks = glyphPresenter.getFallbacks();
+        final int newFallbacks = (int)(fallbacks - lastFallbacks);
+        lastFallbacks = fallbacks;
+        final long render = renderer.getLastRenderNanos();
+        final long late = scheduler.getLastLatenessNanos();
+        final int live = engine.liveDropCount();
+        // present が 0 = FrameDiffer が送らなかったフレーム
+        totalStats.recordFrame(render, present > 0 ? present : -1L, late, ticks, live, newFallbacks);
+        windowStats.recordFrame(render, present > 0 ? present : -1L, late, ticks, live, newFallbacks);
+        if (STATS_LOG_INTERVAL_MS > 0 && System.nanoTime() - nextStatsLogNanos >= 0) logWindowStats();
+    }
+
+    private void logWindowStats() {
+        nextStatsLogNanos = System.nanoTime() + STATS_LOG_INTERVAL_MS * 1_000_000L;
+        if (windowStats.getFrames() == 0) return;
+        statsLine.setLength(0);
+        android.util.Log.i(TAG, windowStats.appendSummary(statsLine.append("stats ")).toString());
+        windowStats.reset();
+    }
 
+    private void resetStats() {
+        totalStats.reset();
+        windowStats.reset();
+        lastFallbacks = glyphPresenter.getFallbacks();
+        nextStatsLogNanos = System.nanoTime() + STATS_LOG_INTERVAL_MS * 1_000_000L;
+    }
+
+    /**
+     * adb shell dumpsys activity service com.hamon.yukknd.device/com.hamon.yukknd.toy.RippleWaveToyService で計測値を出す。
+     * 値は描画スレッドが書いている途中のものを読むので、フレーム間で少しずれることがある。
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        final FrameDiffer frameDiffer = renderer.getDiffer();
+        pw.println("Hamon toy: mode=" + mode + " aod=" + isAodMode + " connected=" + (mGM != null)
+                + " fps=" + governor.getFps() + " ss=" + engine.getSupersamplingFactor());
+        pw.println("  total:  " + totalStats.appendSummary(new StringBuilder()));
+        pw.println("  window: " + windowStats.appendSummary(new StringBuilder()));
+        pw.println("  scheduler: framesRun=" + scheduler.getFramesRun()
+                + " deadlineMisses=" + scheduler.getDeadlineMisses()
+                + " framesDropped=" + scheduler.getFramesDropped()
+                + " errors=" + scheduler.getErrors()
+                + " lastError=" + scheduler.getLastError());
+        pw.println("  differ: sent=" + frameDiffer.getFramesSent()
+                + " skipped=" + frameDiffer.getFramesSkipped()
+                + " coalesced=" + frameDiffer.getFramesCoalesced()
+                + " bytesSaved=" + frameDiffer.getBytesSaved());
+        pw.println("  usage: current(" + (aodRendering ? "AOD" : "active") + ") "
+                + usage.appendSummary(new StringBuilder(), System.nanoTime(), android.os.Process.getElapsedCpuTime(), renderer.getFramesRendered())
+                + " | last AOD " + lastAodUsage + " | last active " + lastActiveUsage);
+        pw.println("  input: applied=" + input.getApplied() + " batches=" + input.getBatches()
+                + " coalescedShakes=" + input.getCoalescedShakes() + " overflows=" + input.getOverflows());
+        pw.println("  presenter: fallbacks=" + glyphPresenter.getFallbacks() + " failures=" + glyphPresenter.getFailures());
+        pw.println("  startup: " + startupLine);
+        pw.println("  sensor: " + motion.appendSummary(new StringBuilder(), System.nanoTime()));
+        pw.println("  profile: current=" + engine.getProfileIndex() + " setting=" + profileSetting
+                + " pending=" + switcher.getPending() + " switches=" + switcher.getSwitches()
+                + " overBudget=" + switcher.getOverBudget() + " last=" + switcher.getLastSummary());
+        pw.println("  drops: live=" + engine.liveDropCount() + "/" + engine.getMaxDrops() + " retired=" + engine.getRetiredDrops());
+        final RadialProfileCache cache = engine.getProfileCache();
+        if (cache != null) {
+            pw.println("  profileCache: entries=" + cache.getEntries() + " bytes=" + cache.getBytes() + "/" + cache.getBudgetBytes()
+                    + " hits=" + cache.getHits() + " misses=" + cache.getMisses() + " evictions=" + cache.getEvictions());
+        }
+        pw.println("  frameSequences: sequences=" + frameSequences.getSequences()
+                + " heap=" + frameSequences.getHeapBytes() + "/" + frameSequences.getBudgetBytes()
+                + " mapped=" + frameSequences.getMappedBytes()
+                + " played=" + frameSequences.getFramesPlayed() + " fallbacks=" + frameSequences.getFallbacks()
+                + " bakes=" + frameSequences.getBakes() + " evictions=" + frameSequences.getEvictions());
+    }
+
+    private void resetFrameRate() {
+        if (governor.reset()) scheduler.setPeriodNanos(FRAME_PERIOD_NANOS * governor.getStride());
+    }
+
+    /**
+     * 描画して、FrameDiffer が必要と判断したときだけ setMatrixFrame する。
+     * 水滴が無くなったら (= 暗転フレームを送り終えたら) 次の post() までフレームを止める。
+     * 描画しなかった (未接続) ときは false。
+     */
+    private boolean renderAndPresent() {
+        final GlyphMatrixManager gm = mGM;
+        if (gm == null) return false;
+        boolean inSync = renderer.renderFrame();
+        if (inSync && engine.liveDropCount() == 0) {
+            final FrameDiffer frameDiffer = renderer.getDiffer();
+            android.util.Log.d(TAG, "render loop idle, sent=" + frameDiffer.getFramesSent()
+                    + " skipped=" + frameDiffer.getFramesSkipped()
+                    + " coalesced=" + frameDiffer.getFramesCoalesced()
+                    + " bytesSaved=" + frameDiffer.getBytesSaved()
+                    + " renderAvgUs=" + (renderer.getRenderNanosTotal() / Math.max(1L, renderer.getFramesRendered()) / 1000L)
+                    + " ss=" + engine.getSupersamplingFactor()
+                    + " deadlineMisses=" + scheduler.getDeadlineMisses()
+                    + " errors=" + scheduler.getErrors());
+            scheduler.requestIdle();
+            // requestIdle の前に積まれた入力を取りこぼさないように、残っていれば起こし直す
+            if (!input.isEmpty()) scheduler.wake();
+            resetFrameRate();
+        }
+        return true;
+    }
+}
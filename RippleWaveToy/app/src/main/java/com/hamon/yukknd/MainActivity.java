@@ -8,6 +8,7 @@ import android.widget.Button;
 import android.widget.TextView;
 
 public class MainActivity extends Activity {
+    private Button profileButton;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -15,6 +16,7 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
         Button simulatorButton = findViewById(R.id.simulator_button);
         Button toyInfoButton = findViewById(R.id.toy_info_button);
+        profileButton = findViewById(R.id.profile_button);
         simulatorButton.setOnClickListener(v -> {
             Intent intent = new Intent(this, com.hamon.yukknd.simulator.RippleWaveSimulatorActivity.class);
             startActivity(intent);
@@ -22,6 +24,17 @@ public class MainActivity extends Activity {
         toyInfoButton.setOnClickListener(v -> {
             showToyInfo();
         });
+        profileButton.setOnClickListener(v -> {
+            Intent intent = new Intent(this, ProfileSettingsActivity.class);
+            startActivity(intent);
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        int profile = ToyPreferences.getProfile(ToyPreferences.get(this));
+        profileButton.setText(getString(R.string.profile_button_format, getString(ToyPreferences.PROFILE_NAMES[profile])));
     }
 
     private void showToyInfo() {
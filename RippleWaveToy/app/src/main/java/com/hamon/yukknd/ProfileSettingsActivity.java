@@ -0,0 +1,37 @@
+package com.hamon.yukknd;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
+
+/**
+ * 波紋のプロファイルを選ぶ画面。device フレーバーではこれがランチャーから開くアプリの画面になる。
+ * 選んだ値は ToyPreferences に書き、トイの表示中ならサービスがそのまま切り替える。
+ */
+public class ProfileSettingsActivity extends Activity {
+    private static final int[] PROFILE_BUTTONS = new int[] {
+            R.id.profile_soft,
+            R.id.profile_crisp_fast,
+            R.id.profile_slow_damped,
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_profile_settings);
+        final SharedPreferences prefs = ToyPreferences.get(this);
+        RadioGroup group = findViewById(R.id.profile_group);
+        for (int i = 0; i < PROFILE_BUTTONS.length; i++) {
+            RadioButton button = findViewById(PROFILE_BUTTONS[i]);
+            button.setText(ToyPreferences.PROFILE_NAMES[i]);
+        }
+        group.check(PROFILE_BUTTONS[ToyPreferences.getProfile(prefs)]);
+        group.setOnCheckedChangeListener((g, checkedId) -> {
+            for (int i = 0; i < PROFILE_BUTTONS.length; i++) {
+                if (PROFILE_BUTTONS[i] == checkedId) ToyPreferences.setProfile(prefs, i);
+            }
+        });
+    }
+}
@@ -0,0 +1,36 @@
+package com.hamon.yukknd;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * トイサービスとアプリの画面で共有する SharedPreferences。
+ * サービスは PROFILE の変更を見て、描画中でもプロファイルを切り替える。
+ */
+public final class ToyPreferences {
+    public static final String NAME = "hamon_toy";
+    /** 波紋のプロファイル (0..2)。 */
+    public static final String PROFILE = "profile";
+    /** プロファイルの表示名 (RippleEngine の profiles[] と同じ順)。 */
+    public static final int[] PROFILE_NAMES = new int[] {
+            R.string.profile_name_soft,
+            R.string.profile_name_crisp_fast,
+            R.string.profile_name_slow_damped,
+    };
+
+    private ToyPreferences() {}
+
+    public static SharedPreferences get(Context context) {
+        return context.getSharedPreferences(NAME, Context.MODE_PRIVATE);
+    }
+
+    /** 設定のプロファイル。範囲外なら 0。 */
+    public static int getProfile(SharedPreferences prefs) {
+        int profile = prefs.getInt(PROFILE, 0);
+        return profile >= 0 && profile < PROFILE_NAMES.length ? profile : 0;
+    }
+
+    public static void setProfile(SharedPreferences prefs, int profile) {
+        prefs.edit().putInt(PROFILE, profile).apply();
+    }
+}
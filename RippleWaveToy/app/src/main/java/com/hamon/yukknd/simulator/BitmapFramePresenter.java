@@ -0,0 +1,66 @@
+package com.hamon.yukknd.simulator;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Handler;
+
+import com.hamon.yukknd.engine.FramePresenter;
+import com.hamon.yukknd.engine.RippleEngine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * シミュレーター用の出力先。0..2040 の輝度をグレーの ARGB に変換して 25x25 のビットマップに表示する。
+ * <p>
+ * ダブルバッファ: present (描画スレッド) は back に書き、書き終えたら front と入れ替える。
+ * UI スレッドは front をビットマップへ setPixels で 1 回コピーするだけ。
+ * 入れ替えとコピーは frameLock で排他する (どちらも 625 ピクセルなので一瞬)。
+ */
+final class BitmapFramePresenter implements FramePresenter {
+    private static final int W = RippleEngine.W;
+    private static final int H = RippleEngine.H;
+
+    private final Bitmap bitmap;
+    private final BitmapDrawable drawable;
+    private final Handler uiHandler;
+    private final Object frameLock = new Object();
+    private int[] frontBuf = new int[W * H];
+    private int[] backBuf = new int[W * H];
+    private final AtomicBoolean uiUpdatePending = new AtomicBoolean(false);
+    private final Runnable uiUpdate = this::updateBitmap;
+
+    BitmapFramePresenter(Bitmap bitmap, BitmapDrawable drawable, Handler uiHandler) {
+        this.bitmap = bitmap;
+        this.drawable = drawable;
+        this.uiHandler = uiHandler;
+    }
+
+    @Override
+    public boolean present(int[] frame) {
+        final int[] argb = backBuf;
+        for (int i = 0; i < argb.length; i++) {
+            // 2040 = 255 * 8
+            int v = frame[i] >> 3;
+            argb[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+        synchronized (frameLock) {
+            backBuf = frontBuf;
+            frontBuf = argb;
+        }
+        // UI 側の更新が終わっていなければ投げ直さない (次の更新で最新の front が反映される)
+        if (uiUpdatePending.compareAndSet(false, true)) uiHandler.post(uiUpdate);
+        return true;
+    }
+
+    /** UI スレッド。最新の front をビットマップへ一括コピーして再描画させる。 */
+    private void updateBitmap() {
+        uiUpdatePending.set(false);
+        synchronized (frameLock) {
+            bitmap.setPixels(frontBuf, 0, W, 0, 0, W, H);
+        }
+        drawable.invalidateSelf();
+    }
+
+    /** 保留中の UI 更新を取り消す。 */
+    void cancel() { uiHandler.removeCallbacks(uiUpdate); }
+}
@@ -5,55 +5,64 @@ import android.os.Bundle;
 import android.widget.Button;
 import android.widget.TextView;
 import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
 import android.widget.ImageView;
 import android.os.Handler;
 import android.os.Looper;
 import com.hamon.yukknd.R;
-
-import java.util.Timer;
-import java.util.TimerTask;
-
+import com.hamon.yukknd.engine.FrameRenderer;
+import com.hamon.yukknd.engine.FrameScheduler;
+import com.hamon.yukknd.engine.Profile;
+import com.hamon.yukknd.engine.ProfileSwitcher;
+import com.hamon.yukknd.engine.RippleEngine;
+
+import java.util.Random;
+
+/**
+ * 実機と同じ RippleEngine / FrameRenderer を使い、出力先だけを画面上のビットマップにしたシミュレーター。
+ * 長押し・AOD・自動落下のタイミングもトイサービスに合わせている。
+ */
 public class RippleWaveSimulatorActivity extends Activity {
 
     private ImageView matrixView;
     private TextView profileText;
     private Button longPressButton;
     private Button aodButton;
-    private static final int W = 25;
-    private static final int H = 25;
-    private static final float CX = (W - 1) * 0.5f;
-    private static final float CY = (H - 1) * 0.5f;
-    private static final float RADIUS = 12.4f;
-
-    private static class Profile {
-        final float wavelength, speed, damping;
-        final int nameResId;
-        Profile(float wl, float v, float a, int nameResId){
-            wavelength=wl; speed=v; damping=a; this.nameResId=nameResId;
-        }
-    }
-    private final Profile[] profiles = new Profile[] {
-            new Profile(4.0f,  0.22f, 0.06f, R.string.profile_name_soft),
-            new Profile(3.0f,  0.35f, 0.05f, R.string.profile_name_crisp_fast),
-            new Profile(5.5f,  0.16f, 0.08f, R.string.profile_name_slow_damped),
+    private Button profileButton;
+    private static final int W = RippleEngine.W;
+    private static final int H = RippleEngine.H;
+    /** 実機と同じ 25 FPS (40ms) で描画する。 */
+    private static final long FRAME_PERIOD_NANOS = 40_000_000L;
+    /** 自動落下の間隔 (フレーム数)。トイサービスのタイマー (ZEN / HAMON 10 秒、RAIN 1.4 秒) と同じ。 */
+    private static final int AUTO_DROP_FRAMES = 250;
+    private static final int AUTO_DROP_FRAMES_RAIN = 35;
+    /** 同時に持てる水滴の数 (トイサービスと同じ)。 */
+    private static final int MAX_DROPS = 64;
+
+    private static final int[] PROFILE_NAMES = new int[] {
+            R.string.profile_name_soft,
+            R.string.profile_name_crisp_fast,
+            R.string.profile_name_slow_damped,
     };
-    private int profileIdx = 0;
-
-    private float t = 0.0f;
-    private float dt = 1.0f;
-
-    private static class Drop {
-        final float x, y;
-        float age;
-        Drop(float x, float y){ this.x=x; this.y=y; this.age=0f; }
-    }
-    private final Drop[] drops = new Drop[] {
-            new Drop(CX, CY), null, null
+    private static final int[] MODE_NAMES = new int[] {
+            R.string.mode_name_zen,
+            R.string.mode_name_hamon,
+            R.string.mode_name_rain,
+            R.string.mode_name_wave,
     };
 
-    private Timer timer;
-    private final int[] frameBuf = new int[W * H];
+    /** engine と renderer は描画スレッド専用。UI からは scheduler.post() で渡す。 */
+    private final RippleEngine engine = new RippleEngine(new Random(), MAX_DROPS);
+    private FrameRenderer renderer;
+    private BitmapFramePresenter presenter;
+    private final FrameScheduler scheduler = new FrameScheduler("RippleSimRender", FRAME_PERIOD_NANOS, this::onFrame);
+    /** シミュレーターは焼いた列を使わないので、切り替えは次のフレームの先頭ですぐ反映される (テーブルを作る executor は呼ばれない)。 */
+    private final ProfileSwitcher switcher = new ProfileSwitcher(engine, Runnable::run);
     private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    /** UI 側で把握しているモード。 */
+    private int mode = RippleEngine.MODE_ZEN;
+    private int profile = 0;
+    private int untilAutoDrop = AUTO_DROP_FRAMES;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,176 +72,94 @@ public class RippleWaveSimulatorActivity extends Activity {
         profileText = findViewById(R.id.profile_text);
         longPressButton = findViewById(R.id.long_press_button);
         aodButton = findViewById(R.id.aod_button);
+        profileButton = findViewById(R.id.profile_button);
         longPressButton.setOnClickListener(v -> onLongPress());
         aodButton.setOnClickListener(v -> onAOD());
+        profileButton.setOnClickListener(v -> onProfile());
+        initMatrixView();
         initSimulation();
         updateProfileText();
     }
 
+    /** 25x25 のビットマップを 1 枚だけ作り、フィルタなし (ニアレストネイバー) で ImageView いっぱいに拡大表示する。 */
+    private void initMatrixView() {
+        Bitmap bitmap = Bitmap.createBitmap(W, H, Bitmap.Config.ARGB_8888);
+        BitmapDrawable drawable = new BitmapDrawable(getResources(), bitmap);
+        drawable.setFilterBitmap(false);
+        matrixView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        matrixView.setImageDrawable(drawable);
+        presenter = new BitmapFramePresenter(bitmap, drawable, uiHandler);
+        renderer = new FrameRenderer(engine, presenter);
+    }
+
     private void initSimulation() {
-        resetScene();
-        renderAndPresent();
-        startTimer(100);
+        scheduler.post(() -> {
+            engine.resetScene();
+            engine.setMode(RippleEngine.MODE_ZEN);
+            engine.spawnTick();
+            untilAutoDrop = AUTO_DROP_FRAMES;
+            renderer.invalidate();
+        });
+        scheduler.start();
     }
 
+    /** トイサービスの長押し (EVENT_CHANGE) と同じ。 */
     private void onLongPress() {
-        profileIdx = (profileIdx + 1) % profiles.length;
-        addDrop(CX, CY);
+        mode = (mode + 1) % RippleEngine.MODE_COUNT;
+        final int next = mode;
+        scheduler.post(() -> {
+            engine.setMode(next);
+            if (RippleEngine.isRainMode(next)) {
+                engine.spawnRainBurst(3);
+                untilAutoDrop = 5;
+            } else {
+                if (next == RippleEngine.MODE_HAMON) engine.spawnTick();
+                untilAutoDrop = AUTO_DROP_FRAMES;
+            }
+        });
         updateProfileText();
     }
 
+    /** トイサービスの EVENT_AOD と同じく 1 ステップ進める。 */
     private void onAOD() {
-        step();
-        renderAndPresent();
+        scheduler.post(() -> engine.step());
+    }
+
+    /** トイサービスの設定画面と同じく次のプロファイルに切り替える (描画は止めない)。 */
+    private void onProfile() {
+        profile = (profile + 1) % engine.getProfileCount();
+        final int next = profile;
+        scheduler.post(() -> switcher.request(next));
+        updateProfileText();
     }
 
     private void updateProfileText() {
-        Profile pf = profiles[profileIdx];
+        Profile pf = engine.getProfile(profile);
         profileText.setText(getString(
             R.string.profile_label_format,
-            getString(pf.nameResId),
-            pf.wavelength,
+            getString(MODE_NAMES[mode]),
+            getString(PROFILE_NAMES[profile]),
+            pf.sigma,
             pf.speed,
             pf.damping));
     }
 
-    private void startTimer(long periodMs) {
-        stopTimer();
-        timer = new Timer("RippleSimTimer");
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override public void run() {
-                step();
-                uiHandler.post(() -> renderAndPresent());
-            }
-        }, 0, periodMs);
-    }
-
-    private void stopTimer() {
-        if (timer != null) {
-            try { timer.cancel(); } catch (Throwable ignored) {}
-            timer = null;
-        }
-    }
-
-    private void step() {
-        t += dt;
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] != null) drops[i].age += dt;
-        }
-        removeFadedDrops();
-    }
-
-    private void resetScene() {
-        t = 0f;
-        for (int i = 0; i < drops.length; i++) drops[i] = null;
-        drops[0] = new Drop(CX, CY);
-    }
-
-    private void addDrop(float x, float y) {
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] == null) { drops[i] = new Drop(x, y); return; }
-        }
-        int oldest = 0;
-        float maxAge = -1f;
-        for (int i = 0; i < drops.length; i++) {
-            if (drops[i] != null && drops[i].age > maxAge) {
-                maxAge = drops[i].age; oldest = i;
-            }
-        }
-        drops[oldest] = new Drop(x, y);
-    }
-
-    private void removeFadedDrops() {
-        for (int i = 0; i < drops.length; i++) {
-            Drop d = drops[i];
-            if (d == null) continue;
-            if (d.age > 400f) { drops[i] = null; }
-        }
-        boolean any = false;
-        for (Drop d : drops) if (d != null) { any = true; break; }
-        if (!any) drops[0] = new Drop(CX, CY);
-    }
-
-    private void renderAndPresent() {
-        final Profile pf = profiles[profileIdx];
-        final float wl = pf.wavelength;
-        final float v = pf.speed;
-        final float a = pf.damping;
-        int idx = 0;
-        for (int j = 0; j < H; j++) {
-            for (int i = 0; i < W; i++, idx++) {
-                float dx = i - CX;
-                float dy = j - CY;
-                float rFromCenter = (float)Math.sqrt(dx*dx + dy*dy);
-                if (rFromCenter > RADIUS + 0.5f) {
-                    frameBuf[idx] = 0xFF000000; continue;
-                }
-                float mask = smoothstep(RADIUS + 0.5f, RADIUS - 1.0f, rFromCenter);
-                float sum = 0f;
-                for (Drop d : drops) {
-                    if (d == null) continue;
-                    float rx = i - d.x;
-                    float ry = j - d.y;
-                    float r = (float)Math.sqrt(rx*rx + ry*ry);
-                    float phase = (float)(2.0 * Math.PI * ((r - v * d.age) / wl));
-                    float amp = (float)Math.exp(-a * r) * envelope(d.age);
-                    sum += amp * (float)Math.cos(phase);
-                }
-                float base = 12f;
-                float scale = 115f;
-                float val = base + scale * sum;
-                val *= mask;
-                if (val < 0f) val = 0f;
-                if (val > 255f) val = 255f;
-                int iv = (int)(val + 0.5f);
-                int argb = 0xFF000000 | (iv << 16) | (iv << 8) | iv;
-                frameBuf[idx] = argb;
-            }
+    /** 描画スレッド。遅れて複数周期ぶん進んだ場合もまとめて 1 回描画する。 */
+    private void onFrame(int ticks) {
+        switcher.applyPending();
+        engine.step(ticks);
+        untilAutoDrop -= ticks;
+        if (untilAutoDrop <= 0) {
+            engine.spawnTick();
+            untilAutoDrop = RippleEngine.isRainMode(engine.getMode()) ? AUTO_DROP_FRAMES_RAIN : AUTO_DROP_FRAMES;
         }
-        displayMatrix();
-    }
-
-    private void displayMatrix() {
-        int scale = 20;
-        int displayW = W * scale;
-        int displayH = H * scale;
-        Bitmap bitmap = Bitmap.createBitmap(displayW, displayH, Bitmap.Config.ARGB_8888);
-        for (int j = 0; j < H; j++) {
-            for (int i = 0; i < W; i++) {
-                int color = frameBuf[j * W + i];
-                for (int dy = 0; dy < scale; dy++) {
-                    for (int dx = 0; dx < scale; dx++) {
-                        bitmap.setPixel(i * scale + dx, j * scale + dy, color);
-                    }
-                }
-            }
-        }
-        matrixView.setImageBitmap(bitmap);
-    }
-
-    private static float smoothstep(float edge0, float edge1, float x) {
-        float t = clamp01((x - edge0) / (edge1 - edge0));
-        return t * t * (3f - 2f * t);
-    }
-
-    private static float clamp01(float v) {
-        return v < 0f ? 0f : (v > 1f ? 1f : v);
-    }
-
-    private static float envelope(float age) {
-        float a = age;
-        float attack = 6f;
-        float fade = 0.004f;
-        float att = 1f - (float)Math.exp(-a / attack);
-        float rel = (float)Math.exp(-fade * a);
-        return att * rel;
+        renderer.renderFrame();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        stopTimer();
+        scheduler.stop(500L);
+        if (presenter != null) presenter.cancel();
     }
 }
-
-
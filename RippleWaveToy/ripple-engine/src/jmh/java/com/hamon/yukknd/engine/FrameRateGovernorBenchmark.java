@@ -0,0 +1,68 @@
+package com.hamon.yukknd.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1 op = シミュレーション上の 1 秒 (基準 25 フレーム)。
+ * governed=false は毎フレーム 25 FPS、true は FrameRateGovernor が選んだレートで描画したときの CPU 時間を比べる。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameRateGovernorBenchmark {
+    @Param({"ZEN", "HAMON", "RAIN"})
+    public String mode;
+
+    @Param({"false", "true"})
+    public boolean governed;
+
+    private RippleEngine engine;
+    private FrameRateGovernor governor;
+    private FrameDiffer differ;
+    private final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+    private final FramePresenter sink = f -> true;
+    private int untilSpawn;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new RippleEngine(new Random(7L));
+        engine.setMode(RippleEngineBenchmark.modeOf(mode));
+        governor = new FrameRateGovernor(5f, 25f);
+        differ = new FrameDiffer(frame.length);
+        engine.spawnTick();
+        untilSpawn = spawnInterval();
+    }
+
+    @Benchmark
+    public int simulatedSecond() {
+        int frames = 0;
+        for (int elapsed = 0; elapsed < (int)RippleEngine.FPS; ) {
+            int stride = governed ? governor.getStride() : 1;
+            engine.step(stride);
+            untilSpawn -= stride;
+            if (untilSpawn <= 0) { engine.spawnTick(); untilSpawn = spawnInterval(); }
+            engine.render(frame);
+            differ.submit(frame, sink);
+            if (governed) governor.update(stride, engine.liveDropCount(), engine.maxRingSpeed(), differ.getLastMaxDelta());
+            elapsed += stride;
+            frames++;
+        }
+        return frames;
+    }
+
+    /** サービスの自動落下タイマーと同じ間隔 (ZEN / HAMON 10 秒、RAIN 1.4 秒) を基準フレームで表したもの。 */
+    private int spawnInterval() {
+        return engine.getMode() == RippleEngine.MODE_RAIN ? 35 : 250;
+    }
+}
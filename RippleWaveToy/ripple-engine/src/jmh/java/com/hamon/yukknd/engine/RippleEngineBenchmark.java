@@ -0,0 +1,84 @@
+package com.hamon.yukknd.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1 フレーム分のコストを ZEN / HAMON / RAIN × 水滴数 1 / 3 / 8 で計測する。
+ * render は固定シーンの描画のみ、frame は step + 描画 (水滴が消えたら補充) の定常状態。
+ * path は描画パス (float / cached = 中心水滴を RadialProfileCache で描く float / fixed = 固定小数点 /
+ * baked = 中心水滴を FrameSequenceCache から再生、対象外は cached と同じ)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RippleEngineBenchmark {
+    @Param({"ZEN", "HAMON", "RAIN"})
+    public String mode;
+
+    @Param({"1", "3", "8"})
+    public int drops;
+
+    @Param({"float", "cached", "fixed", "baked"})
+    public String path;
+
+    private RippleEngine engine;
+    private final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new RippleEngine(new Random(42L));
+        engine.setMode(modeOf(mode));
+        engine.setFixedPointRender("fixed".equals(path));
+        if (!"cached".equals(path) && !"baked".equals(path)) engine.setProfileCache(null);
+        if ("baked".equals(path)) {
+            FrameSequenceCache sequences = new FrameSequenceCache();
+            engine.bakeFrameSequences(sequences);
+            engine.setFrameSequenceCache(sequences);
+        }
+        // 年齢が散らばった定常状態を作る
+        int spacing = (int)(RippleEngine.MAX_AGE_FRAMES / RippleEngine.MAX_DROPS);
+        for (int k = 0; k < drops; k++) {
+            spawn();
+            for (int f = 0; f < spacing; f++) engine.step();
+        }
+    }
+
+    @Benchmark
+    public int[] render() {
+        engine.render(frame);
+        return frame;
+    }
+
+    @Benchmark
+    public int[] frame() {
+        engine.step();
+        if (engine.liveDropCount() < drops) spawn();
+        engine.render(frame);
+        return frame;
+    }
+
+    private void spawn() {
+        if (engine.getMode() == RippleEngine.MODE_RAIN) engine.addRainRandomDrop();
+        else engine.addDrop(RippleEngine.CX, RippleEngine.CY);
+    }
+
+    static int modeOf(String name) {
+        switch (name) {
+            case "HAMON": return RippleEngine.MODE_HAMON;
+            case "RAIN": return RippleEngine.MODE_RAIN;
+            case "WAVE": return RippleEngine.MODE_WAVE;
+            default: return RippleEngine.MODE_ZEN;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hamon.yukknd.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * スーパーサンプリング描画 (描画 + 縮小) の 1 フレームの時間。factor=1 は通常の 25x25 描画。
+ * 端末ごとに 40ms の予算に収まる倍率を選ぶための数字。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SupersamplingBenchmark {
+    @Param({"ZEN", "HAMON", "RAIN"})
+    public String mode;
+
+    @Param({"1", "2", "3"})
+    public int factor;
+
+    @Param({"box", "tent"})
+    public String filter;
+
+    private RippleEngine engine;
+    private final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new RippleEngine(new Random(42L));
+        engine.setMode(RippleEngineBenchmark.modeOf(mode));
+        engine.setSupersampling(factor, "tent".equals(filter) ? RippleEngine.FILTER_TENT : RippleEngine.FILTER_BOX);
+        int spacing = (int)(RippleEngine.MAX_AGE_FRAMES / RippleEngine.MAX_DROPS);
+        for (int k = 0; k < RippleEngine.MAX_DROPS; k++) {
+            if (engine.getMode() == RippleEngine.MODE_RAIN) engine.addRainRandomDrop();
+            else engine.addDrop(RippleEngine.CX, RippleEngine.CY);
+            for (int f = 0; f < spacing; f++) engine.step();
+        }
+    }
+
+    @Benchmark
+    public int[] render() {
+        engine.render(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,64 @@
+package com.hamon.yukknd.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TiledRenderer の 1 フレームの時間を解像度 × スレッド数で計測する (1 → N コアのスケーリング)。
+ * シーンは水滴 8 個の定常状態。threads=1 はプールを使わない単一スレッド描画。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TiledRendererBenchmark {
+    @Param({"HAMON", "RAIN"})
+    public String mode;
+
+    @Param({"100", "200", "400"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private RippleEngine engine;
+    private ForkJoinPool pool;
+    private TiledRenderer renderer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new RippleEngine(new Random(42L));
+        engine.setMode(RippleEngineBenchmark.modeOf(mode));
+        int spacing = (int)(RippleEngine.MAX_AGE_FRAMES / RippleEngine.MAX_DROPS);
+        for (int k = 0; k < RippleEngine.MAX_DROPS; k++) {
+            if (engine.getMode() == RippleEngine.MODE_RAIN) engine.addRainRandomDrop();
+            else engine.addDrop(RippleEngine.CX, RippleEngine.CY);
+            for (int f = 0; f < spacing; f++) engine.step();
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        renderer = new TiledRenderer(size, size, pool);
+        renderer.setParallelThreshold(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    @Benchmark
+    public float[] render() {
+        renderer.render(engine);
+        return renderer.getValues();
+    }
+}
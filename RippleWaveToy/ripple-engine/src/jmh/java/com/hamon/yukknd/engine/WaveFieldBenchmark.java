@@ -0,0 +1,76 @@
+package com.hamon.yukknd.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 雨の 1 フレーム (step + 雨粒の追加 + render) の時間を、解析的な描画 (RAIN) と波動方程式の水面 (WAVE) で比べる。
+ * drops は生きている水滴の数。RAIN はプールの上限を MIN_CAPACITY 以上にして計る前に drops 個まで満たし、
+ * 毎フレーム消えた分 (寿命か、見えなくなって消えた水滴) を足して drops 個に保つ。
+ * WAVE は水滴をプールに持たないので、drops 粒を水面に落としてから、寿命 (MAX_AGE_FRAMES) あたり drops 粒の割合で落とし続ける。
+ * どちらも寿命 1 回分進めてから計る。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveFieldBenchmark {
+    /** RAIN のプールの上限の下限。drops がこれより多ければ drops にする。 */
+    static final int MIN_CAPACITY = 128;
+
+    @Param({"RAIN", "WAVE"})
+    public String mode;
+
+    @Param({"8", "32", "128"})
+    public int drops;
+
+    @Param({"reflect", "absorb"})
+    public String rim;
+
+    private RippleEngine engine;
+    private boolean wave;
+    private final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+    private float spawnDebt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new RippleEngine(new Random(42L), Math.max(MIN_CAPACITY, drops));
+        engine.setMode(RippleEngineBenchmark.modeOf(mode));
+        engine.setWaveRim("absorb".equals(rim) ? RippleEngine.RIM_ABSORB : RippleEngine.RIM_REFLECT);
+        wave = engine.getMode() == RippleEngine.MODE_WAVE;
+        for (int d = 0; d < drops; d++) engine.addRainRandomDrop();
+        for (int f = 0; f < (int)RippleEngine.MAX_AGE_FRAMES; f++) advance();
+        if (!wave && engine.liveDropCount() != drops) {
+            throw new IllegalStateException("live drops " + engine.liveDropCount() + " != " + drops);
+        }
+    }
+
+    @Benchmark
+    public int[] frame() {
+        advance();
+        engine.render(frame);
+        return frame;
+    }
+
+    private void advance() {
+        engine.step();
+        if (!wave) {
+            for (int n = engine.liveDropCount(); n < drops; n++) engine.addRainRandomDrop();
+            return;
+        }
+        spawnDebt += drops / RippleEngine.MAX_AGE_FRAMES;
+        while (spawnDebt >= 1f) {
+            engine.addRainRandomDrop();
+            spawnDebt -= 1f;
+        }
+    }
+}
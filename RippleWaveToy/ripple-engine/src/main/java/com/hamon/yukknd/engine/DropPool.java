@@ -0,0 +1,198 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * 水滴プール (Structure of Arrays)。
+ * 水滴はスロット番号で管理し、各属性を並列のプリミティブ配列に持つので、生成・更新・描画でオブジェクトを確保しない。
+ * order[0..count) は生存スロットをスロット番号順に詰めたインデックスで、描画はこの順に加算する。
+ * スロットが足りなくなると maxCapacity まで倍々に広げる (確保は水滴数の最大を更新したときだけ)。
+ */
+final class DropPool {
+    /** 今のスロット数。grow() で増える。 */
+    int capacity;
+    final int maxCapacity;
+    /** 1 水滴あたりの距離場・減衰場の長さ (= RippleGeometry.ACTIVE.length)。 */
+    final int fieldStride;
+
+    float[] x;
+    float[] y;
+    float[] age;
+    float[] weight;
+    float[] sigmaScale;
+    float[] speedScale;
+    float[] dampingScale;
+    /** 距離減衰の係数 a (生成時のプロファイルの damping / dampingScale)。 */
+    float[] dampingA;
+    /** スロット s の距離場は dist[s*fieldStride ..)、距離減衰 exp(-a r) は damp[s*fieldStride ..)。 */
+    float[] dist;
+    float[] damp;
+    /** 固定小数点レンダラー用のコピー。座標・距離は Q12、減衰・倍率は Q16 (RippleFixedMath)。 */
+    int[] xQ;
+    int[] yQ;
+    int[] weightQ;
+    int[] sigmaScaleQ;
+    int[] invDampingScaleQ;
+    int[] distQ;
+    int[] dampQ;
+
+    private boolean[] live;
+    int[] order;
+    int count;
+    /** pickSlots の作業領域。 */
+    private int[] byAge;
+    private final int[] single = new int[1];
+
+    DropPool(int capacity) { this(capacity, capacity); }
+
+    DropPool(int capacity, int maxCapacity) {
+        if (capacity < 1 || maxCapacity < capacity) throw new IllegalArgumentException(capacity + "/" + maxCapacity);
+        this.capacity = capacity;
+        this.maxCapacity = maxCapacity;
+        this.fieldStride = RippleGeometry.ACTIVE.length;
+        x = new float[capacity];
+        y = new float[capacity];
+        age = new float[capacity];
+        weight = new float[capacity];
+        sigmaScale = new float[capacity];
+        speedScale = new float[capacity];
+        dampingScale = new float[capacity];
+        dampingA = new float[capacity];
+        dist = new float[capacity * fieldStride];
+        damp = new float[capacity * fieldStride];
+        xQ = new int[capacity];
+        yQ = new int[capacity];
+        weightQ = new int[capacity];
+        sigmaScaleQ = new int[capacity];
+        invDampingScaleQ = new int[capacity];
+        distQ = new int[capacity * fieldStride];
+        dampQ = new int[capacity * fieldStride];
+        live = new boolean[capacity];
+        order = new int[capacity];
+        byAge = new int[capacity];
+    }
+
+    /** スロットを newCapacity (maxCapacity 以下) に広げる。生存水滴とスロット番号はそのまま。 */
+    void grow(int newCapacity) {
+        if (newCapacity <= capacity) return;
+        if (newCapacity > maxCapacity) throw new IllegalArgumentException("capacity " + newCapacity + " > " + maxCapacity);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        age = Arrays.copyOf(age, newCapacity);
+        weight = Arrays.copyOf(weight, newCapacity);
+        sigmaScale = Arrays.copyOf(sigmaScale, newCapacity);
+        speedScale = Arrays.copyOf(speedScale, newCapacity);
+        dampingScale = Arrays.copyOf(dampingScale, newCapacity);
+        dampingA = Arrays.copyOf(dampingA, newCapacity);
+        dist = Arrays.copyOf(dist, newCapacity * fieldStride);
+        damp = Arrays.copyOf(damp, newCapacity * fieldStride);
+        xQ = Arrays.copyOf(xQ, newCapacity);
+        yQ = Arrays.copyOf(yQ, newCapacity);
+        weightQ = Arrays.copyOf(weightQ, newCapacity);
+        sigmaScaleQ = Arrays.copyOf(sigmaScaleQ, newCapacity);
+        invDampingScaleQ = Arrays.copyOf(invDampingScaleQ, newCapacity);
+        distQ = Arrays.copyOf(distQ, newCapacity * fieldStride);
+        dampQ = Arrays.copyOf(dampQ, newCapacity * fieldStride);
+        live = Arrays.copyOf(live, newCapacity);
+        order = Arrays.copyOf(order, newCapacity);
+        byAge = new int[newCapacity];
+        capacity = newCapacity;
+    }
+
+    void clear() {
+        Arrays.fill(live, false);
+        count = 0;
+    }
+
+    /**
+     * 水滴を追加する。空きスロットがあれば番号の小さい順に使い、満杯なら最も古い水滴を置き換える。
+     * protectYoung が true のとき (RAIN)、最古でも MIN_REPLACE_AGE_FRAMES 未満かつ最若がその半分未満なら追加しない。
+     * 使ったスロット番号、追加しなかった場合は -1 を返す。
+     */
+    int spawn(float px, float py, float w, float sig, float spd, float dmp, float damping, boolean protectYoung) {
+        if (pickSlots(1, protectYoung, single) == 0) return -1;
+        spawnAt(single[0], px, py, w, sig, spd, dmp, damping);
+        return single[0];
+    }
+
+    /**
+     * n 個 (maxCapacity 以下) の水滴を続けて spawn() したときに使われるスロットを、プールを 1 回なめるだけで out[0..) に求める。
+     * 空きが足りなければ先にプールを広げる。空きスロットを番号順に使い、その後は生存水滴を古い順 (同じ年齢なら番号順) に置き換える。
+     * protectYoung の判定では、先に追加した水滴 (年齢 0) を最若として扱う。戻り値は決まったスロットの数 (残りは追加しない)。
+     * 追加済みの水滴をさらに置き換えることはしないので、元の水滴に年齢 0 のものがあると spawn() の繰り返しとは選び方が変わる。
+     */
+    int pickSlots(int n, boolean protectYoung, int[] out) {
+        if (capacity - count < n && capacity < maxCapacity) {
+            grow(Math.min(maxCapacity, Math.max(capacity * 2, count + n)));
+        }
+        int free = 0;
+        int used = 0;
+        float minAge = Float.MAX_VALUE;
+        for (int s = 0; s < capacity; s++) {
+            if (!live[s]) {
+                if (free < n) out[free++] = s;
+                continue;
+            }
+            final float a = age[s];
+            int i = used++;
+            while (i > 0 && age[byAge[i - 1]] < a) { byAge[i] = byAge[i - 1]; i--; }
+            byAge[i] = s;
+            if (a < minAge) minAge = a;
+        }
+        int picked = free;
+        for (int k = 0; picked < n && k < used; k++) {
+            final int oldest = byAge[k];
+            if (protectYoung && age[oldest] < RippleEngine.MIN_REPLACE_AGE_FRAMES
+                    && (picked > 0 ? 0f : minAge) < RippleEngine.MIN_REPLACE_AGE_FRAMES * 0.5f) break;
+            out[picked++] = oldest;
+        }
+        return picked;
+    }
+
+    /** slot に水滴を置く (生存中なら置き換える)。距離場と減衰場もここで作る。 */
+    void spawnAt(int slot, float px, float py, float w, float sig, float spd, float dmp, float damping) {
+        if (live[slot]) remove(slot);
+        x[slot] = px; y[slot] = py; age[slot] = 0f;
+        weight[slot] = w; sigmaScale[slot] = sig; speedScale[slot] = spd; dampingScale[slot] = dmp;
+        int base = slot * fieldStride;
+        RippleGeometry.distanceField(px, py, dist, base);
+        float aDrop = damping / dmp;
+        dampingA[slot] = aDrop;
+        RippleMath math = RippleMath.DEFAULT;
+        for (int n = base, end = base + fieldStride; n < end; n++) damp[n] = math.expNeg(aDrop * dist[n]);
+        xQ[slot] = RippleFixedMath.toPos(px); yQ[slot] = RippleFixedMath.toPos(py);
+        weightQ[slot] = RippleFixedMath.toQ16(w); sigmaScaleQ[slot] = RippleFixedMath.toQ16(sig);
+        invDampingScaleQ[slot] = RippleFixedMath.toQ16(1.0 / dmp);
+        for (int n = base, end = base + fieldStride; n < end; n++) {
+            distQ[n] = RippleFixedMath.toPos(dist[n]);
+            dampQ[n] = RippleFixedMath.toQ16(damp[n]);
+        }
+        insert(slot);
+    }
+
+    void advance(float dt) {
+        for (int i = 0; i < count; i++) age[order[i]] += dt;
+    }
+
+    void removeOlderThan(float maxAge) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (age[order[i]] > maxAge) remove(order[i]);
+        }
+    }
+
+    private void insert(int slot) {
+        int i = count;
+        while (i > 0 && order[i - 1] > slot) { order[i] = order[i - 1]; i--; }
+        order[i] = slot;
+        live[slot] = true;
+        count++;
+    }
+
+    void remove(int slot) {
+        int i = 0;
+        while (order[i] != slot) i++;
+        System.arraycopy(order, i + 1, order, i, count - i - 1);
+        live[slot] = false;
+        count--;
+    }
+}
@@ -0,0 +1,179 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * 固定小数点レンダラー。RippleEngine の float パス (スパース加算) と同じ計算を int / long だけで行う。
+ * <ul>
+ *   <li>座標・距離・リング半径は Q12、振幅・減衰・テーブル値は Q16 (RippleFixedMath)。</li>
+ *   <li>水滴ごとの距離場と距離減衰は生成時に DropPool が Q12 / Q16 で持っている。</li>
+ *   <li>加算バッファは Q16 の int で、最後にピクセルごとの出力倍率 (1.1 × マスク × 2040) を掛けて丸める。</li>
+ * </ul>
+ * float パスとの差は出力で ±1 レベル以内。
+ */
+final class FixedPointRenderer {
+    private static final int MAX_SHELLS = 4;
+    private static final int POS_ONE = 1 << RippleFixedMath.POS_Q;
+    /** Q16 の積を丸めるときの 0.5。 */
+    private static final long HALF = 1L << (RippleFixedMath.Q - 1);
+    private static final float TRAIL_DELTA = 3.8f;
+    private static final int TRAILS = 3;
+    private static final float GAIN = 1.10f;
+    /** アクティブピクセル n の出力倍率 1.1 * mask * 2040 (Q16)。 */
+    private static final int[] OUTPUT_SCALE = new int[RippleGeometry.ACTIVE.length];
+    static {
+        for (int n = 0; n < OUTPUT_SCALE.length; n++) {
+            OUTPUT_SCALE[n] = RippleFixedMath.toQ16((double)GAIN * RippleGeometry.ACTIVE_MASK[n] * RippleEngine.MAX_BRIGHTNESS);
+        }
+    }
+
+    private final RippleFixedMath math = RippleFixedMath.DEFAULT;
+    private int[] frameSlots;
+    private int[] shellCount;
+    private int[] shellR0;
+    private long[] shellK;
+    private int[] shellAmp;
+    private int[] ringInner;
+    private int[] ringOuter;
+    private final int[] accum = new int[RippleGeometry.ACTIVE.length];
+
+    private Profile cachedProfile;
+    private int sigmaQ;
+
+    /** capacity は最初の水滴数。プールが広がったら描画時に合わせて広げる。 */
+    FixedPointRenderer(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        frameSlots = new int[capacity];
+        shellCount = new int[capacity];
+        shellR0 = new int[capacity * MAX_SHELLS];
+        shellK = new long[capacity * MAX_SHELLS];
+        shellAmp = new int[capacity * MAX_SHELLS];
+        ringInner = new int[capacity];
+        ringOuter = new int[capacity];
+    }
+
+    /** pool の現在の状態を frame (長さ W*H) に 0..2040 の輝度で描画する。 */
+    void render(DropPool pool, Profile pf, boolean hamon, int[] frame) {
+        if (pf != cachedProfile) {
+            cachedProfile = pf;
+            sigmaQ = RippleFixedMath.toQ16(pf.sigma);
+        }
+        int nDrops = prepareShells(pool, pf.speed, hamon);
+        accumulate(pool, nDrops);
+        Arrays.fill(frame, 0);
+        final int[] active = RippleGeometry.ACTIVE;
+        for (int n = 0; n < active.length; n++) {
+            long v = ((long)accum[n] * OUTPUT_SCALE[n] + (1L << 31)) >> 32;
+            frame[active[n]] = v > RippleEngine.MAX_BRIGHTNESS ? RippleEngine.MAX_BRIGHTNESS : (int)v;
+        }
+    }
+
+    /** RippleEngine.accumulateSparse と同じ円環スパン加算。スパンの端も Q12 の整数演算で求める。 */
+    private void accumulate(DropPool p, int nDrops) {
+        Arrays.fill(accum, 0);
+        for (int di = 0; di < nDrops; di++) {
+            final int slot = frameSlots[di];
+            final int x0 = p.xQ[slot];
+            final int y0 = p.yQ[slot];
+            final int outer = ringOuter[di];
+            final long outer2 = (long)outer * outer;
+            final long inner2 = (long)ringInner[di] * ringInner[di];
+            int j0 = Math.max(0, (y0 - outer + POS_ONE - 1) >> RippleFixedMath.POS_Q);
+            int j1 = Math.min(RippleGeometry.H - 1, (y0 + outer) >> RippleFixedMath.POS_Q);
+            for (int j = j0; j <= j1; j++) {
+                int rowMin = RippleGeometry.ROW_MIN_X[j];
+                int rowMax = RippleGeometry.ROW_MAX_X[j];
+                if (rowMin > rowMax) continue;
+                long dy = ((long)j << RippleFixedMath.POS_Q) - y0;
+                long dy2 = dy * dy;
+                if (dy2 > outer2) continue;
+                int half = (int)RippleFixedMath.isqrt(outer2 - dy2);
+                int lo = Math.max(rowMin, (x0 - half + POS_ONE - 1) >> RippleFixedMath.POS_Q);
+                int hi = Math.min(rowMax, (x0 + half) >> RippleFixedMath.POS_Q);
+                if (lo > hi) continue;
+                int rowBase = RippleGeometry.ROW_START[j] - rowMin;
+                if (dy2 < inner2) {
+                    int hole = (int)RippleFixedMath.isqrt(inner2 - dy2);
+                    int leftEnd = Math.min(hi, (x0 - hole) >> RippleFixedMath.POS_Q);
+                    int rightStart = Math.max(lo, (x0 + hole + POS_ONE - 1) >> RippleFixedMath.POS_Q);
+                    for (int i = lo; i <= leftEnd; i++) accum[rowBase + i] += shade(p, di, rowBase + i);
+                    for (int i = rightStart; i <= hi; i++) accum[rowBase + i] += shade(p, di, rowBase + i);
+                } else {
+                    for (int i = lo; i <= hi; i++) accum[rowBase + i] += shade(p, di, rowBase + i);
+                }
+            }
+        }
+    }
+
+    /** frameSlots[di] の水滴のアクティブピクセル n への寄与 (Q16)。 */
+    private int shade(DropPool p, int di, int n) {
+        int f = frameSlots[di] * p.fieldStride + n;
+        int r = p.distQ[f];
+        long s = 0L;
+        for (int si = di * MAX_SHELLS, end = si + shellCount[di]; si < end; si++) {
+            long dr = r - shellR0[si];
+            s += (long)shellAmp[si] * math.gauss(dr * dr, shellK[si]);
+        }
+        return (int)((((s + HALF) >> RippleFixedMath.Q) * p.dampQ[f] + HALF) >> RippleFixedMath.Q);
+    }
+
+    /**
+     * RippleEngine.prepareShells の固定小数点版。戻り値は frameSlots に詰めた生存水滴の数。
+     * リング半径だけは float パスと同じ式で求めてから Q12 にする。HAMON の後続リングは半径が 0 を
+     * 超えた瞬間に現れる (不連続) ので、その判定を float パスと一致させるため。
+     */
+    private int prepareShells(DropPool p, float v, boolean hamon) {
+        final int cutoff = math.gaussCutoff;
+        if (frameSlots.length < p.capacity) allocate(p.capacity);
+        int nDrops = 0;
+        for (int i = 0; i < p.count; i++) {
+            final int slot = p.order[i];
+            final int age = Math.round(p.age[slot] * RippleFixedMath.ONE);
+            final int weight = p.weightQ[slot];
+            final int invDamping = p.invDampingScaleQ[slot];
+            int base = nDrops * MAX_SHELLS;
+            final float r0f = v * p.speedScale[slot] * p.age[slot];
+            int r0 = RippleFixedMath.toPos(r0f);
+            int sig0 = (int)(((long)sigmaQ * p.sigmaScaleQ[slot]) >> RippleFixedMath.Q);
+            int cut0 = cutOf(cutoff, sig0);
+            shellR0[base] = r0;
+            shellK[base] = RippleFixedMath.gaussScale(sig0);
+            shellAmp[base] = mulQ16(math.envelope(mulQ16Long(age, invDamping)), weight);
+            int inner = r0 - cut0;
+            int outer = r0 + cut0;
+            int count = 1;
+            if (hamon) {
+                for (int k = 1; k <= TRAILS; k++) {
+                    float rkf = r0f - k * TRAIL_DELTA;
+                    if (rkf < 0f) break;
+                    int rk = RippleFixedMath.toPos(rkf);
+                    int sigk = (sig0 * (4 + k)) >> 2;
+                    int cutk = cutOf(cutoff, sigk);
+                    int agek = Math.max(0, age - 2 * k * RippleFixedMath.ONE);
+                    shellR0[base + count] = rk;
+                    shellK[base + count] = RippleFixedMath.gaussScale(sigk);
+                    shellAmp[base + count] = mulQ16(mulQ16(RippleFixedMath.TRAIL_GAIN[k], weight), math.envelope(mulQ16Long(agek, invDamping)));
+                    inner = Math.min(inner, rk - cutk);
+                    outer = Math.max(outer, rk + cutk);
+                    count++;
+                }
+            }
+            shellCount[nDrops] = count;
+            ringInner[nDrops] = Math.max(0, inner);
+            ringOuter[nDrops] = outer;
+            frameSlots[nDrops++] = slot;
+        }
+        return nDrops;
+    }
+
+    /** cutoff (Q16) × sigma (Q16) を Q12 で返す。 */
+    private static int cutOf(int cutoff, int sigma) {
+        return (int)(((long)cutoff * sigma) >> (2 * RippleFixedMath.Q - RippleFixedMath.POS_Q));
+    }
+
+    private static int mulQ16(int a, int b) { return (int)(((long)a * b + HALF) >> RippleFixedMath.Q); }
+    private static long mulQ16Long(int a, int b) { return ((long)a * b + HALF) >> RippleFixedMath.Q; }
+}
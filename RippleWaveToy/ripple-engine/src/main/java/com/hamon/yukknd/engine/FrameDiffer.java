@@ -0,0 +1,127 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * レンダラーと FramePresenter のあいだに入る差分ステージ。
+ * 最後に送ったフレームを保持し、変化ピクセル数と最大変化量から「送る / まとめる / 送らない」を決める。
+ * <ul>
+ *   <li>threshold 未満の変化は知覚できないものとして無視する。ただし 0 への変化 (消灯) は常に変化とみなす。</li>
+ *   <li>変化があっても最大変化量が coalesceDelta 未満なら、最大 maxCoalesced フレームまで送信を見送る。
+ *       比較対象は送信済みフレームなので、見送った分の変化は次の送信にまとめて反映される。</li>
+ * </ul>
+ * スレッドセーフではない。
+ */
+public final class FrameDiffer {
+    public static final int SEND = 0;
+    public static final int COALESCE = 1;
+    public static final int SKIP = 2;
+
+    public static final int DEFAULT_THRESHOLD = 8;
+    public static final int DEFAULT_COALESCE_DELTA = 24;
+    public static final int DEFAULT_MAX_COALESCED = 2;
+
+    private final int[] lastSent;
+    private boolean lastSentValid = false;
+    private int threshold;
+    private int coalesceDelta;
+    private int maxCoalesced;
+    private int coalescedRun = 0;
+
+    private int lastChangedPixels;
+    private int lastMaxDelta;
+    private long framesSent;
+    private long framesCoalesced;
+    private long framesSkipped;
+    private long framesFailed;
+    private long changedPixelsTotal;
+    private long bytesSaved;
+
+    public FrameDiffer(int length) { this(length, DEFAULT_THRESHOLD, DEFAULT_COALESCE_DELTA, DEFAULT_MAX_COALESCED); }
+
+    public FrameDiffer(int length, int threshold, int coalesceDelta, int maxCoalesced) {
+        this.lastSent = new int[length];
+        setThreshold(threshold);
+        setCoalescing(coalesceDelta, maxCoalesced);
+    }
+
+    /** 1 以下で完全一致のみスキップ。 */
+    public void setThreshold(int threshold) { this.threshold = Math.max(1, threshold); }
+    /** maxCoalesced を 0 にするとまとめ送りをしない。 */
+    public void setCoalescing(int coalesceDelta, int maxCoalesced) {
+        this.coalesceDelta = coalesceDelta;
+        this.maxCoalesced = Math.max(0, maxCoalesced);
+    }
+
+    /** 次のフレームを必ず送らせる (表示がリセットされたときなど)。 */
+    public void invalidate() { lastSentValid = false; coalescedRun = 0; }
+
+    /** frame を最後に送ったフレームと比べて SEND / COALESCE / SKIP を返す。状態は変えない。 */
+    public int diff(int[] frame) {
+        if (!lastSentValid) {
+            lastChangedPixels = frame.length;
+            lastMaxDelta = Integer.MAX_VALUE;
+            return SEND;
+        }
+        int changed = 0;
+        int maxDelta = 0;
+        final int th = threshold;
+        for (int i = 0; i < frame.length; i++) {
+            int cur = frame[i];
+            int prev = lastSent[i];
+            int d = cur - prev;
+            if (d < 0) d = -d;
+            if (d > maxDelta) maxDelta = d;
+            if (d >= th || (cur == 0 && prev != 0)) changed++;
+        }
+        lastChangedPixels = changed;
+        lastMaxDelta = maxDelta;
+        if (changed == 0) return SKIP;
+        if (maxDelta < coalesceDelta && coalescedRun < maxCoalesced) return COALESCE;
+        return SEND;
+    }
+
+    /**
+     * diff して、必要なら presenter に渡す。
+     * 戻り値は表示中のフレームが frame と (threshold の範囲で) 一致しているかどうか。
+     */
+    public boolean submit(int[] frame, FramePresenter presenter) {
+        int decision = diff(frame);
+        final int frameBytes = frame.length * 4;
+        if (decision == SKIP) {
+            framesSkipped++;
+            coalescedRun = 0;
+            bytesSaved += frameBytes;
+            return true;
+        }
+        if (decision == COALESCE) {
+            framesCoalesced++;
+            coalescedRun++;
+            bytesSaved += frameBytes;
+            return false;
+        }
+        coalescedRun = 0;
+        if (!presenter.present(frame)) {
+            framesFailed++;
+            return false;
+        }
+        System.arraycopy(frame, 0, lastSent, 0, frame.length);
+        lastSentValid = true;
+        framesSent++;
+        changedPixelsTotal += lastChangedPixels;
+        return true;
+    }
+
+    public int getLastChangedPixels() { return lastChangedPixels; }
+    public int getLastMaxDelta() { return lastMaxDelta; }
+    public long getFramesSent() { return framesSent; }
+    public long getFramesCoalesced() { return framesCoalesced; }
+    public long getFramesSkipped() { return framesSkipped; }
+    public long getFramesFailed() { return framesFailed; }
+    public long getChangedPixelsTotal() { return changedPixelsTotal; }
+    /** 送信を見送ったフレームぶんのバイト数 (int 4 バイト × ピクセル数)。 */
+    public long getBytesSaved() { return bytesSaved; }
+
+    public void resetCounters() {
+        framesSent = framesCoalesced = framesSkipped = framesFailed = 0L;
+        changedPixelsTotal = bytesSaved = 0L;
+    }
+}
@@ -0,0 +1,90 @@
+package com.hamon.yukknd.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 輝度フレーム列のバイナリ形式 (gzip)。
+ * <pre>
+ * int   MAGIC ("HMF1")
+ * short width, short height
+ * 以降フレームごとに width*height 個の short、EOF まで
+ * </pre>
+ * 各ピクセルは直前のフレームとの差 (最初のフレームは 0 との差) で持つ。
+ * 連続するフレームはほとんど変わらないので、gzip がよく効く。
+ */
+public final class FrameDump {
+    public static final int MAGIC = 0x484D4631;
+
+    private FrameDump() {}
+
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final int[] prev;
+        private int frames;
+
+        public Writer(OutputStream out, int width, int height) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+            this.prev = new int[width * height];
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(width);
+            this.out.writeShort(height);
+        }
+
+        public void write(int[] frame) throws IOException {
+            if (frame.length != prev.length) throw new IllegalArgumentException("frame length " + frame.length + " != " + prev.length);
+            for (int i = 0; i < frame.length; i++) {
+                out.writeShort(frame[i] - prev[i]);
+                prev[i] = frame[i];
+            }
+            frames++;
+        }
+
+        public int getFrameCount() { return frames; }
+
+        @Override public void close() throws IOException { out.close(); }
+    }
+
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final int width;
+        private final int height;
+        private final int[] prev;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+            int magic = this.in.readInt();
+            if (magic != MAGIC) throw new IOException("not a frame dump (magic " + Integer.toHexString(magic) + ")");
+            this.width = this.in.readUnsignedShort();
+            this.height = this.in.readUnsignedShort();
+            this.prev = new int[width * height];
+        }
+
+        public int getWidth() { return width; }
+        public int getHeight() { return height; }
+
+        /** 次のフレームを into に読む。終端なら false。 */
+        public boolean next(int[] into) throws IOException {
+            int first;
+            try {
+                first = in.readShort();
+            } catch (EOFException e) {
+                return false;
+            }
+            into[0] = prev[0] += first;
+            for (int i = 1; i < prev.length; i++) into[i] = prev[i] += in.readShort();
+            return true;
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+}
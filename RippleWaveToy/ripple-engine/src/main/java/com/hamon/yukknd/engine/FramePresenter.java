@@ -0,0 +1,7 @@
+package com.hamon.yukknd.engine;
+
+/** 描画済みの輝度フレーム (0..2040, W*H) の出力先。実機では GlyphMatrixManager、テストではメモリ上のシンクなど。 */
+public interface FramePresenter {
+    /** frame を表示する。表示できたら true。frame は呼び出し後に書き換えられるので保持しないこと。 */
+    boolean present(int[] frame);
+}
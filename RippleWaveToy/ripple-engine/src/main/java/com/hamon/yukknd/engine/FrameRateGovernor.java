@@ -0,0 +1,98 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * シーンの動きに合わせてフレームレートを選ぶ。
+ * <p>
+ * レートは 25 FPS を整数で割った値 (25, 12.5, 8.3, 6.25, 5 ...) に限り、1 フレームで進める基準フレーム数
+ * (stride) として返す。呼び出し側は周期を stride*40ms にし、engine.step(ticks*stride) で進めるので、
+ * リングの見かけの速度はレートによらず一定で、水滴の年齢も整数フレームのまま保たれる。
+ * <p>
+ * 判定に使うのは 1 秒 (基準 25 フレーム) の窓での最大値:
+ * <ul>
+ *   <li>リング速度: 1 フレームの移動量が maxStepPx 以下になるレート</li>
+ *   <li>生存水滴数: busyDrops 以上なら最大レート (RAIN のバーストなど)</li>
+ *   <li>直前フレームの最大輝度変化 (基準 1 フレームあたり): busyDelta 以上なら最大レート</li>
+ *   <li>水滴が無ければ最小レート</li>
+ * </ul>
+ * レートを上げる判定はフレームごとに即座に、下げる判定は窓の終わりにだけ行う。
+ */
+public final class FrameRateGovernor {
+    public static final float DEFAULT_MAX_STEP_PX = 0.5f;
+    public static final int DEFAULT_BUSY_DROPS = 4;
+    public static final int DEFAULT_BUSY_DELTA = 160;
+
+    private final int minStride;
+    private final int maxStride;
+    private float maxStepPx = DEFAULT_MAX_STEP_PX;
+    private int busyDrops = DEFAULT_BUSY_DROPS;
+    private int busyDelta = DEFAULT_BUSY_DELTA;
+
+    private int stride;
+    private int windowTicks = 0;
+    private int windowStride;
+    private long strideChanges = 0L;
+
+    /** レートは 25/stride に丸め、maxFps を超えず minFps を下回らない範囲に収める。 */
+    public FrameRateGovernor(float minFps, float maxFps) {
+        if (!(minFps > 0f && maxFps >= minFps)) throw new IllegalArgumentException("minFps=" + minFps + " maxFps=" + maxFps);
+        this.minStride = Math.max(1, (int)Math.ceil(RippleEngine.FPS / maxFps - 1e-3f));
+        this.maxStride = Math.max(minStride, (int)Math.floor(RippleEngine.FPS / minFps + 1e-3f));
+        this.stride = minStride;
+        this.windowStride = maxStride;
+    }
+
+    public void setMaxStepPx(float px) { maxStepPx = px; }
+    public void setBusyDrops(int drops) { busyDrops = drops; }
+    public void setBusyDelta(int delta) { busyDelta = delta; }
+
+    /** 現在の stride (1 フレームで進める基準フレーム数)。 */
+    public int getStride() { return stride; }
+    public float getFps() { return RippleEngine.FPS / stride; }
+    public long getStrideChanges() { return strideChanges; }
+
+    /** 最大レートに戻す (アイドル復帰時など)。変わったら true。 */
+    public boolean reset() {
+        windowTicks = 0;
+        windowStride = maxStride;
+        return apply(minStride);
+    }
+
+    /**
+     * 描画したフレームごとに呼ぶ。
+     * @param ticks        このフレームで進めた基準フレーム数
+     * @param liveDrops    生存水滴数
+     * @param ringSpeed    最速リングの速度 (px / 基準フレーム)
+     * @param maxDelta     直前フレームとの最大輝度変化 (このフレームの stride ぶん)
+     * @return stride が変わったら true
+     */
+    public boolean update(int ticks, int liveDrops, float ringSpeed, int maxDelta) {
+        int want = desiredStride(liveDrops, ringSpeed, maxDelta / Math.max(1, stride));
+        if (want < windowStride) windowStride = want;
+        windowTicks += ticks;
+        if (want < stride) {
+            return apply(want);
+        }
+        if (windowTicks >= (int)RippleEngine.FPS) {
+            int next = windowStride;
+            windowTicks = 0;
+            windowStride = maxStride;
+            if (next > stride) return apply(next);
+        }
+        return false;
+    }
+
+    private int desiredStride(int liveDrops, float ringSpeed, int deltaPerTick) {
+        if (liveDrops == 0) return maxStride;
+        if (liveDrops >= busyDrops || deltaPerTick >= busyDelta) return minStride;
+        if (ringSpeed <= 0f) return maxStride;
+        int s = (int)Math.floor(maxStepPx / ringSpeed);
+        return s < minStride ? minStride : (s > maxStride ? maxStride : s);
+    }
+
+    private boolean apply(int next) {
+        if (next == stride) return false;
+        stride = next;
+        strideChanges++;
+        return true;
+    }
+}
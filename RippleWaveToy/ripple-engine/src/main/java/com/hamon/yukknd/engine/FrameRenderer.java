@@ -0,0 +1,73 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * 1 フレーム分の描画パイプライン: RippleEngine.render → FrameDiffer → FramePresenter。
+ * 実機 (Glyph Matrix)、シミュレーター (ビットマップ)、ヘッドレス (メモリ) で同じ経路を通るので、
+ * どこで測ってもフレーム時間は実機に出すものと同じ処理のものになる。
+ * スレッドセーフではない。描画スレッドからだけ呼ぶこと。
+ */
+public final class FrameRenderer {
+    private final RippleEngine engine;
+    private final FramePresenter presenter;
+    private final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+    private final FrameDiffer differ = new FrameDiffer(RippleEngine.W * RippleEngine.H);
+    private final FramePresenter timedPresenter = this::presentTimed;
+
+    private long lastRenderNanos;
+    private long lastPresentNanos;
+    private long framesRendered;
+    private long renderNanosTotal;
+
+    public FrameRenderer(RippleEngine engine, FramePresenter presenter) {
+        this.engine = engine;
+        this.presenter = presenter;
+    }
+
+    /**
+     * 描画して、FrameDiffer が必要と判断したときだけ presenter に渡す。
+     * 戻り値は表示中のフレームが描画結果と一致しているかどうか (FrameDiffer.submit と同じ)。
+     */
+    public boolean renderFrame() {
+        long t0 = System.nanoTime();
+        engine.render(frame);
+        lastRenderNanos = System.nanoTime() - t0;
+        renderNanosTotal += lastRenderNanos;
+        framesRendered++;
+        lastPresentNanos = 0L;
+        return differ.submit(frame, timedPresenter);
+    }
+
+    /**
+     * 別に描いておいたフレーム (起動時のウォームアップで描いた 1 枚など) を描画結果として FrameDiffer 経由で presenter に渡す。
+     * 描画時間は 0 として扱う。戻り値は renderFrame() と同じ。
+     */
+    public boolean presentFrame(int[] precomputed) {
+        System.arraycopy(precomputed, 0, frame, 0, frame.length);
+        lastRenderNanos = 0L;
+        lastPresentNanos = 0L;
+        return differ.submit(frame, timedPresenter);
+    }
+
+    private boolean presentTimed(int[] f) {
+        long t0 = System.nanoTime();
+        try {
+            return presenter.present(f);
+        } finally {
+            lastPresentNanos = System.nanoTime() - t0;
+        }
+    }
+
+    /** 次のフレームを必ず presenter に渡す (表示がリセットされたときなど)。 */
+    public void invalidate() { differ.invalidate(); }
+
+    public RippleEngine getEngine() { return engine; }
+    public FrameDiffer getDiffer() { return differ; }
+    /** 最後に描画したフレーム。次の renderFrame() で書き換わる。 */
+    public int[] getFrame() { return frame; }
+    /** 直前のフレームの engine.render にかかった時間。 */
+    public long getLastRenderNanos() { return lastRenderNanos; }
+    /** 直前のフレームの presenter.present にかかった時間 (送らなかったフレームは 0)。 */
+    public long getLastPresentNanos() { return lastPresentNanos; }
+    public long getFramesRendered() { return framesRendered; }
+    public long getRenderNanosTotal() { return renderNanosTotal; }
+}
@@ -0,0 +1,162 @@
+package com.hamon.yukknd.engine;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 専用スレッドで一定周期のフレームを回すスケジューラー。
+ * <ul>
+ *   <li>締め切りは System.nanoTime() 上の固定グリッド (start + k*period) に置くので、周期がずれていかない。</li>
+ *   <li>GC や binder で遅れた場合は、遅れた分のフレームをまとめて連打せずに捨て、
+ *       onFrame(ticks) の ticks に経過周期数を渡す (シミュレーションは ticks 分進める)。</li>
+ *   <li>他スレッドからの状態変更は post() でコマンドキュー (ロックフリー) に積み、各フレームの先頭で描画スレッド上で実行する。</li>
+ *   <li>onFrame やコマンドが例外を投げてもスレッドは止まらない。</li>
+ * </ul>
+ */
+public final class FrameScheduler {
+    /** 描画スレッドで 1 フレームごとに呼ばれる。ticks は前回のフレームから経過した周期数 (通常 1)。 */
+    public interface FrameCallback {
+        void onFrame(int ticks);
+    }
+
+    /** 一度に進める周期数の上限。スレッドが長時間止まっていた場合でもこれ以上は進めない。 */
+    public static final int MAX_TICKS_PER_FRAME = 25;
+
+    private final String name;
+    private final FrameCallback callback;
+    private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private volatile long periodNanos;
+    private volatile boolean running = false;
+    private volatile boolean idle = false;
+    /** wake() が呼ばれてから、まだフレームの先頭を通っていない。描画中の wake() を落とさないためのもの。 */
+    private volatile boolean wakePending = false;
+    private volatile Thread thread;
+
+    private volatile long framesRun;
+    private volatile long deadlineMisses;
+    private volatile long framesDropped;
+    private volatile long errors;
+    private volatile long lastLatenessNanos;
+    private volatile Throwable lastError;
+
+    public FrameScheduler(String name, long periodNanos, FrameCallback callback) {
+        this.name = name;
+        this.periodNanos = periodNanos;
+        this.callback = callback;
+    }
+
+    public synchronized void start() { start(0L); }
+
+    /** 最初のフレームを initialDelayNanos 後に回す (起動時に 1 枚出してあるときなど)。post 済みのコマンドもそのときに実行する。 */
+    public synchronized void start(long initialDelayNanos) {
+        if (running) return;
+        running = true;
+        idle = false;
+        final long delay = Math.max(0L, initialDelayNanos);
+        thread = new Thread(() -> loop(delay), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** スレッドを止めて、最大 timeoutMs 待つ。未実行のコマンドは捨てる。 */
+    public void stop(long timeoutMs) {
+        Thread t;
+        synchronized (this) {
+            if (!running) return;
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        LockSupport.unpark(t);
+        if (t != Thread.currentThread()) {
+            try { t.join(timeoutMs); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        commands.clear();
+    }
+
+    public boolean isRunning() { return running; }
+    public boolean isIdle() { return idle; }
+    public long getPeriodNanos() { return periodNanos; }
+
+    /** 次のフレームから周期を変える。 */
+    public void setPeriodNanos(long periodNanos) { this.periodNanos = periodNanos; }
+
+    /** 描画スレッドで次のフレームの先頭に実行する。アイドル中なら起こす。 */
+    public void post(Runnable command) {
+        commands.add(command);
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * 描画スレッド (onFrame 内) から呼ぶ。次に post() か wake() されるまでフレームを止める。
+     * 復帰時は経過時間を ticks に含めず、1 周期として再開する。
+     */
+    public void requestIdle() { idle = true; }
+
+    /**
+     * コマンドなしでアイドルから起こす。描画中に呼ばれても、そのフレームが requestIdle() していれば
+     * もう 1 フレーム回す (wakePending はフレームの先頭で下ろすので、それより後の wake() は残る)。
+     */
+    public void wake() {
+        wakePending = true;
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    private void loop(long initialDelayNanos) {
+        long next = System.nanoTime() + initialDelayNanos;
+        while (running) {
+            if (idle) {
+                if (commands.isEmpty() && !wakePending) { LockSupport.park(this); continue; }
+                idle = false;
+                next = System.nanoTime();
+            }
+            long now = System.nanoTime();
+            long wait = next - now;
+            if (wait > 0) { LockSupport.parkNanos(this, wait); continue; }
+            final long period = periodNanos;
+            int ticks = 1;
+            lastLatenessNanos = -wait;
+            long missed = (-wait) / period;
+            if (missed > 0) {
+                deadlineMisses++;
+                framesDropped += missed;
+                ticks += (int)Math.min(missed, MAX_TICKS_PER_FRAME - 1);
+            }
+            next += (missed + 1) * period;
+            wakePending = false;
+            drainCommands();
+            if (!running) break;
+            try {
+                callback.onFrame(ticks);
+            } catch (Throwable t) {
+                errors++;
+                lastError = t;
+            }
+            framesRun++;
+        }
+    }
+
+    private void drainCommands() {
+        Runnable cmd;
+        while ((cmd = commands.poll()) != null) {
+            try {
+                cmd.run();
+            } catch (Throwable t) {
+                errors++;
+                lastError = t;
+            }
+        }
+    }
+
+    public long getFramesRun() { return framesRun; }
+    /** 締め切りから 1 周期以上遅れて始まったフレームの数。 */
+    public long getDeadlineMisses() { return deadlineMisses; }
+    /** 遅延のために描画せずに捨てた周期の数。 */
+    public long getFramesDropped() { return framesDropped; }
+    public long getErrors() { return errors; }
+    /** 直前のフレームが締め切りから何ナノ秒遅れて始まったか (onFrame の中で読むと今のフレームの値)。 */
+    public long getLastLatenessNanos() { return lastLatenessNanos; }
+    public Throwable getLastError() { return lastError; }
+}
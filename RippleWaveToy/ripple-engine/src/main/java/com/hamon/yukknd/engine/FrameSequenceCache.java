@@ -0,0 +1,316 @@
+package com.hamon.yukknd.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 中心の単位水滴 1 つ (ZEN / HAMON の自動落下) の一生を、年齢ごとの輝度フレームとして焼いておくキャッシュ。
+ * <p>
+ * 自動落下の水滴はプロファイルとモード (HAMON か) が同じなら毎回まったく同じ 520 フレームのアニメーションになるので、
+ * 1 回焼けば以後は描画せずにメモリから再生できる。
+ * <ul>
+ *   <li>1 フレームはアクティブピクセル順の輝度 (0..2040, 11 bit) を long 1 語に 5 個ずつ詰め、先頭と末尾の 0 は持たない。</li>
+ *   <li>水滴が重なっているときは各水滴のフレームを足して 2040 で切る。丸めが水滴ごとになるので、
+ *       通常の描画との差は重なった水滴の数 / 2 レベル以内。水滴 1 つなら完全に一致する。</li>
+ *   <li>ヒープ上の列の合計が budgetBytes を超えたら、最も長く使われていない列から捨てる。</li>
+ *   <li>save() でファイルに書いた列は map() で読み込まずにメモリマップして使える (ヒープの上限には数えない)。
+ *       プロファイルの値が違う列は使わない。ヘッダーに描画の指紋 (RippleEngine.renderFingerprint) を書き、
+ *       描画の式や定数が変わったあとのファイルは読まない。</li>
+ * </ul>
+ * スレッドセーフではない (RippleEngine と同じスレッドから使う)。
+ */
+public final class FrameSequenceCache {
+    /** 既定のヒープ上限。全プロファイルの ZEN と HAMON の列 (合計約 0.7MB) が収まる大きさ。 */
+    public static final long DEFAULT_BUDGET_BYTES = 1024L * 1024L;
+    static final int VALUES_PER_WORD = 5;
+    static final int VALUE_BITS = 11;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1L;
+    private static final int FILE_MAGIC = 0x48534551; // "HSEQ"
+    private static final int FILE_VERSION = 2;
+
+    /** 焼くときに 1 フレームずつ描かせる。out はアクティブピクセル順の輝度。 */
+    interface FrameSource {
+        void render(int age, int[] out);
+    }
+
+    private static final class Sequence {
+        final int profileIdx;
+        final boolean hamon;
+        final float speed, sigma, damping;
+        final int[] lo;
+        final int[] len;
+        final int[] offset;
+        final LongBuffer data;
+        final boolean mapped;
+        final long bytes;
+        long lastUse;
+
+        Sequence(int profileIdx, boolean hamon, float speed, float sigma, float damping,
+                 int[] lo, int[] len, LongBuffer data, boolean mapped) {
+            this.profileIdx = profileIdx; this.hamon = hamon;
+            this.speed = speed; this.sigma = sigma; this.damping = damping;
+            this.lo = lo; this.len = len; this.data = data; this.mapped = mapped;
+            offset = new int[lo.length];
+            int w = 0;
+            for (int a = 0; a < lo.length; a++) { offset[a] = w; w += words(len[a]); }
+            bytes = (long)data.capacity() * 8L + (long)lo.length * 12L;
+        }
+
+        int frames() { return lo.length; }
+
+        boolean matches(int profileIdx, boolean hamon, Profile pf) {
+            return this.profileIdx == profileIdx && this.hamon == hamon
+                    && speed == pf.speed && sigma == pf.sigma && damping == pf.damping;
+        }
+    }
+
+    private final long budgetBytes;
+    private final int pixels = RippleGeometry.ACTIVE.length;
+    private final ArrayList<Sequence> sequences = new ArrayList<>();
+    /** 1 本で上限を超えて焼けなかった (profileIdx, hamon)。毎フレーム焼き直さないため。 */
+    private long rejected;
+    private long useClock;
+    private long heapBytes;
+    private long mappedBytes;
+
+    private long framesPlayed;
+    private long fallbacks;
+    private long bakes;
+    private long evictions;
+
+    public FrameSequenceCache() { this(DEFAULT_BUDGET_BYTES); }
+
+    public FrameSequenceCache(long budgetBytes) {
+        if (budgetBytes <= 0) throw new IllegalArgumentException("budgetBytes=" + budgetBytes);
+        this.budgetBytes = budgetBytes;
+    }
+
+    /** (プロファイル, HAMON か) の列の番号。無ければ -1。見つかれば最新にする。 */
+    int find(int profileIdx, boolean hamon, Profile pf) {
+        for (int i = 0; i < sequences.size(); i++) {
+            Sequence s = sequences.get(i);
+            if (s.matches(profileIdx, hamon, pf)) {
+                s.lastUse = ++useClock;
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 前に上限を超えて焼けなかった組なら true。 */
+    boolean isRejected(int profileIdx, boolean hamon) {
+        return (rejected & rejectBit(profileIdx, hamon)) != 0;
+    }
+
+    /**
+     * 年齢 0 .. frames-1 のフレームを src に描かせて焼き、列の番号を返す。上限を超える分は古い列から捨てる。
+     * 1 本で上限を超える場合は捨てて -1 (この組は clear() まで焼かない)。
+     */
+    int bake(int profileIdx, boolean hamon, Profile pf, int frames, FrameSource src) {
+        final int[] values = new int[pixels];
+        final int[] lo = new int[frames];
+        final int[] len = new int[frames];
+        long[] words = new long[Math.max(1, frames * 16)];
+        int w = 0;
+        for (int a = 0; a < frames; a++) {
+            src.render(a, values);
+            int first = 0, last = pixels - 1;
+            while (first <= last && values[first] == 0) first++;
+            while (last >= first && values[last] == 0) last--;
+            lo[a] = first;
+            len[a] = last - first + 1;
+            int need = words(len[a]);
+            if (w + need > words.length) words = Arrays.copyOf(words, Math.max(w + need, words.length * 2));
+            for (int n = first; n <= last; n += VALUES_PER_WORD) {
+                long v = 0L;
+                for (int k = Math.min(last, n + VALUES_PER_WORD - 1); k >= n; k--) v = (v << VALUE_BITS) | values[k];
+                words[w++] = v;
+            }
+        }
+        bakes++;
+        final Sequence s = new Sequence(profileIdx, hamon, pf.speed, pf.sigma, pf.damping,
+                lo, len, LongBuffer.wrap(Arrays.copyOf(words, w)), false);
+        if (s.bytes > budgetBytes) {
+            rejected |= rejectBit(profileIdx, hamon);
+            return -1;
+        }
+        while (heapBytes + s.bytes > budgetBytes) evictOldest();
+        remove(profileIdx, hamon);
+        s.lastUse = ++useClock;
+        sequences.add(s);
+        heapBytes += s.bytes;
+        return sequences.size() - 1;
+    }
+
+    /**
+     * from の列を焼き直さずにすべてこのキャッシュへ移す (from は空になる)。同じ組の列は置き換え、
+     * ヒープ上の列の合計が上限を超える分は古い列から捨てる。焼けなかった組の印も引き継ぐ。戻り値は移した列の数。
+     */
+    int adopt(FrameSequenceCache from) {
+        int added = 0;
+        for (int i = 0; i < from.sequences.size(); i++) {
+            final Sequence s = from.sequences.get(i);
+            remove(s.profileIdx, s.hamon);
+            if (s.mapped) {
+                mappedBytes += s.bytes;
+            } else {
+                if (s.bytes > budgetBytes) {
+                    rejected |= rejectBit(s.profileIdx, s.hamon);
+                    continue;
+                }
+                while (heapBytes + s.bytes > budgetBytes) evictOldest();
+                heapBytes += s.bytes;
+            }
+            s.lastUse = ++useClock;
+            sequences.add(s);
+            added++;
+        }
+        rejected |= from.rejected;
+        from.clear();
+        return added;
+    }
+
+    /** 列 seq の年齢 age のフレームを sum (アクティブピクセル順) に足す。 */
+    void accumulate(int seq, int age, int[] sum) {
+        final Sequence s = sequences.get(seq);
+        final LongBuffer data = s.data;
+        int n = s.lo[age];
+        final int end = n + s.len[age];
+        int w = s.offset[age];
+        while (n < end) {
+            long v = data.get(w++);
+            for (int k = Math.min(end, n + VALUES_PER_WORD); n < k; n++) {
+                sum[n] += (int)(v & VALUE_MASK);
+                v >>>= VALUE_BITS;
+            }
+        }
+    }
+
+    int frames(int seq) { return sequences.get(seq).frames(); }
+
+    void countPlayed() { framesPlayed++; }
+    void countFallback() { fallbacks++; }
+
+    /** 全ての列 (ヒープもマップも) をファイルに書く。 */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(RippleEngine.renderFingerprint());
+            out.writeInt(pixels);
+            out.writeInt(sequences.size());
+            for (int i = 0; i < sequences.size(); i++) {
+                final Sequence s = sequences.get(i);
+                out.writeInt(s.profileIdx);
+                out.writeInt(s.hamon ? 1 : 0);
+                out.writeFloat(s.speed);
+                out.writeFloat(s.sigma);
+                out.writeFloat(s.damping);
+                out.writeInt(s.frames());
+                out.writeInt(s.data.capacity());
+                for (int a = 0; a < s.frames(); a++) out.writeInt(s.lo[a]);
+                for (int a = 0; a < s.frames(); a++) out.writeInt(s.len[a]);
+                // long 列は 8 バイト境界から始める
+                while (out.size() % 8 != 0) out.writeByte(0);
+                for (int k = 0; k < s.data.capacity(); k++) out.writeLong(s.data.get(k));
+            }
+        }
+    }
+
+    /**
+     * save() で書いたファイルをメモリマップして列を加える。同じ組のヒープ上の列は置き換える。
+     * 戻り値は加えた列の数。形式か描画の指紋が違えば IOException。
+     */
+    public int map(File file) throws IOException {
+        final ByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel ch = raf.getChannel()) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.remaining() < 24 || buf.getInt() != FILE_MAGIC || buf.getInt() != FILE_VERSION) {
+            throw new IOException("not a frame sequence file: " + file);
+        }
+        if (buf.getLong() != RippleEngine.renderFingerprint()) throw new IOException("render fingerprint mismatch: " + file);
+        if (buf.getInt() != pixels) throw new IOException("pixel count mismatch: " + file);
+        final int count = buf.getInt();
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            final int profileIdx = buf.getInt();
+            final boolean hamon = buf.getInt() != 0;
+            final float speed = buf.getFloat();
+            final float sigma = buf.getFloat();
+            final float damping = buf.getFloat();
+            final int frames = buf.getInt();
+            final int nWords = buf.getInt();
+            final int[] lo = new int[frames];
+            final int[] len = new int[frames];
+            for (int a = 0; a < frames; a++) lo[a] = buf.getInt();
+            for (int a = 0; a < frames; a++) len[a] = buf.getInt();
+            ((Buffer)buf).position((buf.position() + 7) & ~7);
+            final ByteBuffer slice = buf.slice();
+            ((Buffer)slice).limit(nWords * 8);
+            ((Buffer)buf).position(buf.position() + nWords * 8);
+            remove(profileIdx, hamon);
+            final Sequence s = new Sequence(profileIdx, hamon, speed, sigma, damping, lo, len, slice.asLongBuffer(), true);
+            s.lastUse = ++useClock;
+            sequences.add(s);
+            mappedBytes += s.bytes;
+            added++;
+        }
+        return added;
+    }
+
+    public void clear() {
+        sequences.clear();
+        rejected = 0L;
+        heapBytes = mappedBytes = 0L;
+    }
+
+    public void resetStats() { framesPlayed = fallbacks = bakes = evictions = 0L; }
+
+    public long getBudgetBytes() { return budgetBytes; }
+    /** ヒープ上の列の合計 (上限の対象)。 */
+    public long getHeapBytes() { return heapBytes; }
+    /** メモリマップした列の合計。 */
+    public long getMappedBytes() { return mappedBytes; }
+    public int getSequences() { return sequences.size(); }
+    /** 焼いたフレームから再生したフレーム数。 */
+    public long getFramesPlayed() { return framesPlayed; }
+    /** 対象外の水滴があったか列が無くて、通常の描画に回したフレーム数。 */
+    public long getFallbacks() { return fallbacks; }
+    public long getBakes() { return bakes; }
+    public long getEvictions() { return evictions; }
+
+    private void evictOldest() {
+        int oldest = -1;
+        for (int i = 0; i < sequences.size(); i++) {
+            Sequence s = sequences.get(i);
+            if (!s.mapped && (oldest < 0 || s.lastUse < sequences.get(oldest).lastUse)) oldest = i;
+        }
+        if (oldest < 0) return;
+        heapBytes -= sequences.remove(oldest).bytes;
+        evictions++;
+    }
+
+    private void remove(int profileIdx, boolean hamon) {
+        for (int i = sequences.size() - 1; i >= 0; i--) {
+            Sequence s = sequences.get(i);
+            if (s.profileIdx != profileIdx || s.hamon != hamon) continue;
+            sequences.remove(i);
+            if (s.mapped) mappedBytes -= s.bytes; else heapBytes -= s.bytes;
+        }
+    }
+
+    private static long rejectBit(int profileIdx, boolean hamon) { return 1L << ((profileIdx * 2 + (hamon ? 1 : 0)) & 63); }
+
+    private static int words(int len) { return (len + VALUES_PER_WORD - 1) / VALUES_PER_WORD; }
+}
@@ -0,0 +1,81 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * 描画ループの計測値。描画スレッドが 1 フレームごとに recordFrame() を呼ぶ。確保はしない。
+ * <ul>
+ *   <li>render: engine.render の時間</li>
+ *   <li>present: presenter.present (setMatrixFrame) の時間。送らなかったフレームは数えない</li>
+ *   <li>lateness: 締め切り (40ms のグリッド) からフレーム開始までの遅れ = タイマーのジッター</li>
+ *   <li>dropped: 遅れのために描かずに捨てた周期、notSent: FrameDiffer が送らなかったフレーム</li>
+ *   <li>fallbacks: setAppMatrixFrame へのフォールバック回数</li>
+ * </ul>
+ */
+public final class FrameStats {
+    public final LatencyHistogram render = new LatencyHistogram();
+    public final LatencyHistogram present = new LatencyHistogram();
+    public final LatencyHistogram lateness = new LatencyHistogram();
+    private long frames;
+    private long dropped;
+    private long notSent;
+    private long fallbacks;
+    private long liveDropsSum;
+    private int liveDropsMax;
+    private int liveDropsLast;
+    private long startNanos = System.nanoTime();
+
+    /**
+     * @param presentNanos 送らなかったフレームは負の値
+     * @param ticks        FrameScheduler から渡された周期数 (1 なら遅れなし)
+     * @param fallbacks    このフレームで起きたフォールバックの回数
+     */
+    public void recordFrame(long renderNanos, long presentNanos, long latenessNanos, int ticks, int liveDrops, int fallbacks) {
+        frames++;
+        render.record(renderNanos);
+        if (presentNanos >= 0) present.record(presentNanos); else notSent++;
+        lateness.record(latenessNanos);
+        if (ticks > 1) dropped += ticks - 1;
+        this.fallbacks += fallbacks;
+        liveDropsSum += liveDrops;
+        liveDropsLast = liveDrops;
+        if (liveDrops > liveDropsMax) liveDropsMax = liveDrops;
+    }
+
+    public void reset() {
+        render.reset();
+        present.reset();
+        lateness.reset();
+        frames = dropped = notSent = fallbacks = liveDropsSum = 0L;
+        liveDropsMax = liveDropsLast = 0;
+        startNanos = System.nanoTime();
+    }
+
+    public long getFrames() { return frames; }
+    public long getDropped() { return dropped; }
+    public long getNotSent() { return notSent; }
+    public long getFallbacks() { return fallbacks; }
+    public int getLiveDropsMax() { return liveDropsMax; }
+    public int getLiveDropsLast() { return liveDropsLast; }
+
+    /** 1 行の要約 (時間は µs)。 */
+    public StringBuilder appendSummary(StringBuilder sb) {
+        long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000L;
+        sb.append("frames=").append(frames).append(" in ").append(elapsedMs).append("ms");
+        appendHistogram(sb, " render", render);
+        appendHistogram(sb, " present", present);
+        appendHistogram(sb, " lateness", lateness);
+        sb.append(" dropped=").append(dropped)
+          .append(" notSent=").append(notSent)
+          .append(" fallbacks=").append(fallbacks)
+          .append(" drops(last/avg/max)=").append(liveDropsLast).append('/')
+          .append(frames == 0 ? 0 : (liveDropsSum * 10 / frames) / 10.0).append('/')
+          .append(liveDropsMax);
+        return sb;
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(name).append("(p50/p99/max us)=")
+          .append(h.getPercentile(50) / 1000L).append('/')
+          .append(h.getPercentile(99) / 1000L).append('/')
+          .append(h.getMax() / 1000L);
+    }
+}
@@ -0,0 +1,82 @@
+package com.hamon.yukknd.engine;
+
+import java.io.IOException;
+
+/** 保存済みのフレーム列 (ゴールデン) と実行結果をピクセルごとの許容差で比べる。 */
+public final class GoldenComparator {
+    private final int tolerance;
+
+    public GoldenComparator(int tolerance) {
+        if (tolerance < 0) throw new IllegalArgumentException("tolerance=" + tolerance);
+        this.tolerance = tolerance;
+    }
+
+    public static final class Result {
+        public int framesCompared;
+        /** フレーム数が違う場合は、短い方の長さまで比べて true。 */
+        public boolean lengthMismatch;
+        public int maxDiff;
+        /** 許容差を超えたピクセルの総数。 */
+        public long pixelsOverTolerance;
+        /** 許容差を超えた最初のフレームとピクセル (無ければ -1)。 */
+        public int firstBadFrame = -1;
+        public int firstBadPixel = -1;
+        public int firstBadExpected;
+        public int firstBadActual;
+
+        public boolean passed() { return !lengthMismatch && pixelsOverTolerance == 0; }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(passed() ? "PASS" : "FAIL")
+              .append(" frames=").append(framesCompared)
+              .append(" maxDiff=").append(maxDiff)
+              .append(" pixelsOverTolerance=").append(pixelsOverTolerance);
+            if (lengthMismatch) sb.append(" lengthMismatch");
+            if (firstBadFrame >= 0) {
+                sb.append(" first=frame ").append(firstBadFrame)
+                  .append(" (").append(firstBadPixel % RippleEngine.W).append(',').append(firstBadPixel / RippleEngine.W).append(')')
+                  .append(" expected ").append(firstBadExpected).append(" actual ").append(firstBadActual);
+            }
+            return sb.toString();
+        }
+    }
+
+    public Result compare(FrameDump.Reader golden, FrameDump.Reader actual) throws IOException {
+        if (golden.getWidth() != actual.getWidth() || golden.getHeight() != actual.getHeight()) {
+            throw new IOException("size mismatch: " + golden.getWidth() + "x" + golden.getHeight()
+                    + " vs " + actual.getWidth() + "x" + actual.getHeight());
+        }
+        int n = golden.getWidth() * golden.getHeight();
+        int[] g = new int[n];
+        int[] a = new int[n];
+        Result r = new Result();
+        while (true) {
+            boolean hasG = golden.next(g);
+            boolean hasA = actual.next(a);
+            if (!hasG || !hasA) {
+                r.lengthMismatch = hasG != hasA;
+                return r;
+            }
+            compareFrame(r, g, a);
+        }
+    }
+
+    /** 1 フレーム分を r に加える。 */
+    public void compareFrame(Result r, int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            int d = Math.abs(expected[i] - actual[i]);
+            if (d > r.maxDiff) r.maxDiff = d;
+            if (d > tolerance) {
+                if (r.firstBadFrame < 0) {
+                    r.firstBadFrame = r.framesCompared;
+                    r.firstBadPixel = i;
+                    r.firstBadExpected = expected[i];
+                    r.firstBadActual = actual[i];
+                }
+                r.pixelsOverTolerance++;
+            }
+        }
+        r.framesCompared++;
+    }
+}
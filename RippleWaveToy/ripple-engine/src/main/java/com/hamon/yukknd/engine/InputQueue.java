@@ -0,0 +1,173 @@
+package com.hamon.yukknd.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * センサー・長押し・自動落下タイマーなどの入力を型付きコマンドとしてためる固定長のリングバッファ。
+ * <p>
+ * 複数スレッドから offer して、描画スレッドがフレームの先頭で drain() し、まとめて RippleEngine に反映する。
+ * <ul>
+ *   <li>各スロットに通し番号を持たせた境界付きキュー (Vyukov 方式)。offer は CAS 1 回で、ロックも確保もしない。</li>
+ *   <li>満杯なら offer は false を返してコマンドを捨てる (getOverflows で数える)。</li>
+ *   <li>drain() は水滴の追加を 1 つのバッチにまとめ (RippleEngine.beginSpawnBatch)、プールを 1 回なめるだけで置き場所を決める。
+ *       モード変更とステップの前ではそれまでのバッチを確定するので、コマンドの順序は保たれる。</li>
+ *   <li>1 フレームに複数のシェイクが届いたら、最初の 1 回だけバーストを出す。</li>
+ * </ul>
+ * drain() は 1 つのスレッド (描画スレッド) からだけ呼ぶこと。
+ */
+public final class InputQueue {
+    /** 自動落下タイマー 1 回分 (RippleEngine.spawnTick)。 */
+    public static final int SPAWN_TICK = 1;
+    /** a 個の雨粒 (RippleEngine.spawnRainBurst)。 */
+    public static final int RAIN_BURST = 2;
+    /** シェイク。a 個の雨粒を出すが、同じフレームの 2 回目以降は捨てる。 */
+    public static final int SHAKE = 3;
+    /** モード a に切り替える。 */
+    public static final int SET_MODE = 4;
+    /** a フレーム進める (AOD)。 */
+    public static final int STEP = 5;
+    /** 座標 (a, b) (Float.floatToIntBits) に水滴を落とす。 */
+    public static final int DROP = 6;
+    /** 雨粒の位置を (a, b) px (Float.floatToIntBits) ずらす (RippleEngine.setRainBias)。 */
+    public static final int RAIN_BIAS = 7;
+
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final int[] types;
+    private final int[] argA;
+    private final int[] argB;
+    private final AtomicLong enqueuePos = new AtomicLong();
+    /** 描画スレッドだけが読み書きする。 */
+    private long dequeuePos;
+    /** drain() が取り出したコマンド (type, a, b)。 */
+    private final int[] cmd = new int[3];
+
+    private final AtomicLong overflows = new AtomicLong();
+    private volatile long applied;
+    private volatile long batches;
+    private volatile long coalescedShakes;
+
+    /** capacity は 2 のべき乗に切り上げる。 */
+    public InputQueue(int capacity) {
+        if (capacity < 2) throw new IllegalArgumentException("capacity=" + capacity);
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+        types = new int[size];
+        argA = new int[size];
+        argB = new int[size];
+    }
+
+    public boolean offerSpawnTick() { return offer(SPAWN_TICK, 0, 0); }
+    public boolean offerRainBurst(int count) { return offer(RAIN_BURST, count, 0); }
+    public boolean offerShake(int count) { return offer(SHAKE, count, 0); }
+    public boolean offerSetMode(int mode) { return offer(SET_MODE, mode, 0); }
+    public boolean offerStep(int frames) { return offer(STEP, frames, 0); }
+    public boolean offerDrop(float x, float y) { return offer(DROP, Float.floatToIntBits(x), Float.floatToIntBits(y)); }
+    public boolean offerRainBias(float dx, float dy) { return offer(RAIN_BIAS, Float.floatToIntBits(dx), Float.floatToIntBits(dy)); }
+
+    /** コマンドを積む。満杯なら false。どのスレッドからでも呼べる。 */
+    public boolean offer(int type, int a, int b) {
+        long pos = enqueuePos.get();
+        int idx;
+        while (true) {
+            idx = (int)pos & mask;
+            long dif = sequence.get(idx) - pos;
+            if (dif == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) break;
+                pos = enqueuePos.get();
+            } else if (dif < 0) {
+                overflows.incrementAndGet();
+                return false;
+            } else {
+                pos = enqueuePos.get();
+            }
+        }
+        types[idx] = type;
+        argA[idx] = a;
+        argB[idx] = b;
+        sequence.set(idx, pos + 1);
+        return true;
+    }
+
+    /** 未処理のコマンドが無ければ true (描画スレッドがアイドルに入る前の確認用)。 */
+    public boolean isEmpty() {
+        return sequence.get((int)dequeuePos & mask) != dequeuePos + 1;
+    }
+
+    /** 描画スレッドで、たまったコマンドを順に engine に反映する。戻り値は処理したコマンドの数。 */
+    public int drain(RippleEngine engine) {
+        if (isEmpty()) return 0;
+        int n = 0;
+        boolean shaken = false;
+        engine.beginSpawnBatch();
+        while (poll(cmd)) {
+            final int type = cmd[0];
+            final int a = cmd[1];
+            final int b = cmd[2];
+            n++;
+            switch (type) {
+                case SPAWN_TICK:
+                    engine.spawnTick();
+                    break;
+                case RAIN_BURST:
+                    engine.spawnRainBurst(a);
+                    break;
+                case SHAKE:
+                    if (shaken) { coalescedShakes++; break; }
+                    shaken = true;
+                    engine.spawnRainBurst(a);
+                    break;
+                case DROP:
+                    engine.addDrop(Float.intBitsToFloat(a), Float.intBitsToFloat(b));
+                    break;
+                case RAIN_BIAS:
+                    engine.setRainBias(Float.intBitsToFloat(a), Float.intBitsToFloat(b));
+                    break;
+                case SET_MODE:
+                    engine.endSpawnBatch();
+                    engine.setMode(a);
+                    engine.beginSpawnBatch();
+                    break;
+                case STEP:
+                    engine.endSpawnBatch();
+                    engine.step(a);
+                    engine.beginSpawnBatch();
+                    break;
+                default:
+                    break;
+            }
+        }
+        engine.endSpawnBatch();
+        applied += n;
+        batches++;
+        return n;
+    }
+
+    /** 描画スレッドで、たまったコマンドを反映せずに捨てる (シーンを作り直すとき)。戻り値は捨てた数。 */
+    public int discard() {
+        int n = 0;
+        while (poll(cmd)) n++;
+        return n;
+    }
+
+    /** 描画スレッドで、次のコマンドを 1 つ取り出して out[0..2] に (type, a, b) を入れる。無ければ false。 */
+    boolean poll(int[] out) {
+        final int idx = (int)dequeuePos & mask;
+        if (sequence.get(idx) != dequeuePos + 1) return false;
+        out[0] = types[idx];
+        out[1] = argA[idx];
+        out[2] = argB[idx];
+        sequence.set(idx, dequeuePos + mask + 1);
+        dequeuePos++;
+        return true;
+    }
+
+    public int getCapacity() { return mask + 1; }
+    public long getOverflows() { return overflows.get(); }
+    public long getApplied() { return applied; }
+    public long getBatches() { return batches; }
+    public long getCoalescedShakes() { return coalescedShakes; }
+}
@@ -0,0 +1,76 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * HdrHistogram 風の対数・線形バケットのヒストグラム (ナノ秒など非負の long)。
+ * 2 のべき乗の区間ごとに 32 個のバケットに分けるので、相対誤差は約 3% で、0 から約 2^40 まで記録できる。
+ * record() は配列の加算だけで、確保しない。
+ * スレッドセーフではない。別スレッドからの読み出し (dumpsys など) は多少ずれた値になりうる。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    /** これ未満の値は 1 刻みのバケットに入れる。 */
+    private static final int LINEAR = 2 * SUB;
+    private static final int MAX_EXP = 39;
+    private static final long MAX_VALUE = (1L << (MAX_EXP + 1)) - 1;
+    private static final int BUCKETS = LINEAR + (MAX_EXP - SUB_BITS) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        count = 0L;
+        sum = 0L;
+        min = Long.MAX_VALUE;
+        max = 0L;
+    }
+
+    public long getCount() { return count; }
+    public long getMax() { return max; }
+    public long getMin() { return count == 0 ? 0L : min; }
+    public long getMean() { return count == 0 ? 0L : sum / count; }
+
+    /** p (0..100) パーセンタイル。その順位の値が入るバケットの上端 (ただし最大値を超えない)。 */
+    public long getPercentile(double p) {
+        if (count == 0) return 0L;
+        long rank = (long)Math.ceil(p / 100.0 * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperOf(i), max);
+        }
+        return max;
+    }
+
+    static int indexOf(long v) {
+        if (v < LINEAR) return (int)v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        int shift = e - SUB_BITS;
+        return LINEAR + (e - SUB_BITS - 1) * SUB + (int)(v >> shift) - SUB;
+    }
+
+    static long upperOf(int index) {
+        if (index < LINEAR) return index;
+        int k = index - LINEAR;
+        int shift = k / SUB + 1;
+        long m = SUB + (k % SUB);
+        return ((m + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,23 @@
+package com.hamon.yukknd.engine;
+
+/** ヘッドレス用の出力先。最後に受け取ったフレームをコピーして持ち、受け取った回数を数える。 */
+public final class MemoryFramePresenter implements FramePresenter {
+    private final int[] lastFrame = new int[RippleEngine.W * RippleEngine.H];
+    private long framesPresented;
+    private boolean accept = true;
+
+    @Override
+    public boolean present(int[] frame) {
+        if (!accept) return false;
+        System.arraycopy(frame, 0, lastFrame, 0, lastFrame.length);
+        framesPresented++;
+        return true;
+    }
+
+    /** false にすると表示失敗 (present が false) を返す。失敗時の挙動の確認用。 */
+    public void setAccept(boolean accept) { this.accept = accept; }
+
+    /** 最後に受け取ったフレーム (コピー)。 */
+    public int[] getLastFrame() { return lastFrame; }
+    public long getFramesPresented() { return framesPresented; }
+}
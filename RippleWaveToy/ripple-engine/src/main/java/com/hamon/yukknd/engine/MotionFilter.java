@@ -0,0 +1,136 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * 加速度センサーのサンプルからシェイクと傾きを取り出す。Android には依存しない (呼び出し側が SensorEvent の値を渡す)。
+ * <p>
+ * <ul>
+ *   <li>シェイク: |a|^2 が threshold^2 を超えたら。平方根は取らない。連続判定はセンサーのタイムスタンプで guardNanos 空ける。
+ *       FIFO でまとめて届いたサンプルも、実際に揺れた時刻で判定される。</li>
+ *   <li>傾き: 重力を時定数 tiltTimeConstant 秒の 1 次ローパスで取り、x / y 成分を 1G で割った値 (-1..1)。
+ *       サンプルの間隔が 1 秒より空いたら (登録し直したときなど) 次のサンプルから取り直す。</li>
+ *   <li>計測: サンプル数と、届いた回数 (前のサンプルから DELIVERY_GAP_NANOS 以上空いて届いたら 1 回 = アプリが起こされた回数)。
+ *       start() からの 1 分あたりに直して出す。</li>
+ * </ul>
+ * 1 つのスレッド (センサーのコールバック) からだけ呼ぶこと。計測値の読み出しはどのスレッドからでもよい (少しずれることがある)。
+ */
+public final class MotionFilter {
+    public static final float GRAVITY = 9.80665f;
+    /** これより間を空けて届いたサンプルは別の配送 (起床) として数える。 */
+    private static final long DELIVERY_GAP_NANOS = 10_000_000L;
+    private static final long TILT_RESET_NANOS = 1_000_000_000L;
+
+    private final float threshold2;
+    private final long guardNanos;
+    private final float tiltTimeConstant;
+
+    private float gx, gy, gz;
+    private boolean tiltValid = false;
+    private long lastSampleNanos;
+    private long lastShakeNanos = Long.MIN_VALUE / 2;
+    private long lastArrivalNanos = Long.MIN_VALUE / 2;
+
+    private volatile long events;
+    private volatile long deliveries;
+    private volatile long shakes;
+    private long startNanos;
+    private long startEvents;
+    private long startDeliveries;
+    private long registeredNanos;
+    private long registeredSince = -1L;
+
+    /** threshold は m/s^2 (重力込みの大きさ)、guardNanos はシェイクの最短間隔、tiltTimeConstant は秒。 */
+    public MotionFilter(float threshold, long guardNanos, float tiltTimeConstant) {
+        if (!(threshold > 0f) || guardNanos < 0 || !(tiltTimeConstant > 0f)) {
+            throw new IllegalArgumentException("threshold=" + threshold + " guard=" + guardNanos + " tau=" + tiltTimeConstant);
+        }
+        this.threshold2 = threshold * threshold;
+        this.guardNanos = guardNanos;
+        this.tiltTimeConstant = tiltTimeConstant;
+    }
+
+    /**
+     * サンプル 1 つ。timestampNanos はセンサーの時刻 (SensorEvent.timestamp)、arrivalNanos はコールバックが呼ばれた時刻
+     * (同じ時計、elapsedRealtimeNanos)。シェイクと判定したら true。
+     */
+    public boolean onSample(float ax, float ay, float az, long timestampNanos, long arrivalNanos) {
+        events++;
+        if (arrivalNanos - lastArrivalNanos >= DELIVERY_GAP_NANOS) deliveries++;
+        lastArrivalNanos = arrivalNanos;
+
+        final long dt = timestampNanos - lastSampleNanos;
+        lastSampleNanos = timestampNanos;
+        if (!tiltValid || dt <= 0L || dt > TILT_RESET_NANOS) {
+            gx = ax; gy = ay; gz = az;
+            tiltValid = true;
+        } else {
+            final float dts = dt * 1e-9f;
+            final float alpha = dts / (tiltTimeConstant + dts);
+            gx += alpha * (ax - gx);
+            gy += alpha * (ay - gy);
+            gz += alpha * (az - gz);
+        }
+
+        final float a2 = ax * ax + ay * ay + az * az;
+        if (a2 > threshold2 && timestampNanos - lastShakeNanos > guardNanos) {
+            lastShakeNanos = timestampNanos;
+            shakes++;
+            return true;
+        }
+        return false;
+    }
+
+    /** 傾きを取り直す (止まっていた間の値を使わない)。 */
+    public void resetTilt() { tiltValid = false; gx = gy = gz = 0f; }
+
+    /** 重力の x / y 成分 (1G で -1..1)。まだサンプルが無ければ 0。 */
+    public float getTiltX() { return clamp1(gx / GRAVITY); }
+    public float getTiltY() { return clamp1(gy / GRAVITY); }
+
+    /** 計測の区間を始める。 */
+    public void start(long nowNanos) {
+        startNanos = nowNanos;
+        startEvents = events;
+        startDeliveries = deliveries;
+        registeredNanos = 0L;
+        if (registeredSince >= 0L) registeredSince = nowNanos;
+    }
+
+    /** リスナーを登録した / 外したときに呼ぶ (登録していた時間の割合を出すため)。 */
+    public void setRegistered(boolean registered, long nowNanos) {
+        if (registered == (registeredSince >= 0L)) return;
+        if (registered) {
+            registeredSince = nowNanos;
+        } else {
+            registeredNanos += nowNanos - registeredSince;
+            registeredSince = -1L;
+        }
+    }
+
+    public boolean isRegistered() { return registeredSince >= 0L; }
+    public long getEvents() { return events; }
+    public long getDeliveries() { return deliveries; }
+    public long getShakes() { return shakes; }
+
+    public float getEventsPerMinute(long nowNanos) { return perMinute(nowNanos, events - startEvents); }
+    public float getDeliveriesPerMinute(long nowNanos) { return perMinute(nowNanos, deliveries - startDeliveries); }
+
+    /** "events/min=.. wakeups/min=.. registered=..% shakes=.." の 1 行。 */
+    public StringBuilder appendSummary(StringBuilder sb, long nowNanos) {
+        final long span = nowNanos - startNanos;
+        final long on = registeredNanos + (registeredSince >= 0L ? nowNanos - registeredSince : 0L);
+        sb.append("events/min=").append(round1(getEventsPerMinute(nowNanos)))
+          .append(" wakeups/min=").append(round1(getDeliveriesPerMinute(nowNanos)))
+          .append(" registered=").append(span > 0L ? Math.round(100.0 * on / span) : 0).append('%')
+          .append(" shakes=").append(shakes)
+          .append(" tilt=(").append(round1(getTiltX())).append(", ").append(round1(getTiltY())).append(')');
+        return sb;
+    }
+
+    private float perMinute(long nowNanos, long count) {
+        float minutes = (nowNanos - startNanos) / 60e9f;
+        return minutes > 0f ? count / minutes : 0f;
+    }
+
+    private static float clamp1(float v) { return v < -1f ? -1f : (v > 1f ? 1f : v); }
+    private static float round1(float v) { return Math.round(v * 10f) / 10f; }
+}
@@ -0,0 +1,10 @@
+package com.hamon.yukknd.engine;
+
+/** 波紋プロファイル。speed は px/frame (25 FPS 基準)、sigma はシェル幅 px、damping は距離減衰係数。 */
+public final class Profile {
+    public final float speed;
+    public final float sigma;
+    public final float damping;
+
+    public Profile(float v, float s, float a) { speed = v; sigma = s; damping = a; }
+}
@@ -0,0 +1,180 @@
+package com.hamon.yukknd.engine;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 描画を止めずにプロファイルを切り替える。
+ * <ul>
+ *   <li>request() で切り替え先を予約する。焼いた列が RippleEngine の FrameSequenceCache に無ければ
+ *       executor で ProfileTables を作り、できあがるまでは今のプロファイルのまま描く。</li>
+ *   <li>切り替えはフレームの先頭の applyPending() で、プロファイルとテーブルを一度に差し替える (フレームの途中では変わらない)。
+ *       テーブルの列は RippleEngine の FrameSequenceCache に移すので、前に使ったプロファイルへ戻るときは焼き直さない。</li>
+ *   <li>recordFrame() にフレーム時間を渡すと、切り替え前 WINDOW フレームと後 WINDOW フレームの最長を測って要約を残す。</li>
+ * </ul>
+ * request / applyPending / recordFrame は描画スレッドからだけ呼ぶ。executor の中では engine に触らない。
+ */
+public final class ProfileSwitcher {
+    /** 切り替えの前後で最長フレームを見るフレーム数。 */
+    public static final int WINDOW = 25;
+
+    private final RippleEngine engine;
+    private final Executor executor;
+    /** executor で作り終えたテーブル (と要求の番号)。applyPending() が受け取る。 */
+    private final AtomicReference<Built> built = new AtomicReference<>();
+    private volatile Runnable onReady;
+
+    private int requested = -1;
+    private int generation;
+    private long requestNanos;
+    /** テーブルが要らない切り替え (次のフレームでそのまま切り替える)。 */
+    private boolean readyWithoutTables;
+
+    private final long[] recent = new long[WINDOW];
+    private int recentPos;
+    private int afterRemaining;
+    private long maxBefore;
+    private long maxAfter;
+    private int switchedFrom;
+    private long switchedBuildNanos;
+    private long switchedWaitNanos;
+    private long switchedTableBytes;
+
+    private volatile long switches;
+    private volatile long overBudget;
+    private volatile String lastSummary = "-";
+    private long budgetNanos = 40_000_000L;
+
+    private static final class Built {
+        final int generation;
+        final ProfileTables tables;
+        Built(int generation, ProfileTables tables) { this.generation = generation; this.tables = tables; }
+    }
+
+    public ProfileSwitcher(RippleEngine engine, Executor executor) {
+        this.engine = engine;
+        this.executor = executor;
+    }
+
+    /** テーブルができたときに (executor のスレッドで) 呼ぶ。描画スレッドを起こすため。 */
+    public void setOnReady(Runnable onReady) { this.onReady = onReady; }
+
+    /** 要約で「予算超え」とみなすフレーム時間。 */
+    public void setBudgetNanos(long nanos) { budgetNanos = nanos; }
+
+    /** 描画スレッド。プロファイル idx への切り替えを予約する (前の予約は取り消す)。今と同じなら予約を消すだけ。 */
+    public void request(int idx) {
+        if (idx < 0 || idx >= engine.getProfileCount()) throw new IllegalArgumentException("profile=" + idx);
+        final int gen = ++generation;
+        readyWithoutTables = false;
+        discardStale(gen);
+        if (idx == engine.getProfileIndex()) {
+            requested = -1;
+            return;
+        }
+        requested = idx;
+        requestNanos = System.nanoTime();
+        if (engine.hasFrameSequences(idx)) {
+            readyWithoutTables = true;
+            return;
+        }
+        final long budget = engine.getFrameSequenceCache().getBudgetBytes();
+        executor.execute(() -> {
+            if (publish(new Built(gen, ProfileTables.build(idx, budget)))) {
+                final Runnable r = onReady;
+                if (r != null) r.run();
+            }
+        });
+    }
+
+    /** 切り替えを待っているプロファイル。無ければ -1。 */
+    public int getPending() { return requested; }
+
+    /**
+     * 描画スレッドで、フレームの先頭 (入力と step の前) に呼ぶ。準備のできた切り替えがあれば
+     * プロファイルとテーブルを差し替えて true。
+     */
+    public boolean applyPending() {
+        if (requested < 0) return false;
+        ProfileTables tables = null;
+        if (!readyWithoutTables) {
+            final Built b = built.get();
+            if (b == null) return false;
+            // 読んだ b だけを取り出す (その間に executor が新しい結果を置いていたら、それは残す)
+            if (!built.compareAndSet(b, null)) return false;
+            if (b.generation != generation) {
+                b.tables.release();
+                return false;
+            }
+            tables = b.tables;
+        }
+        switchedFrom = engine.getProfileIndex();
+        switchedWaitNanos = System.nanoTime() - requestNanos;
+        switchedBuildNanos = tables != null ? tables.buildNanos : 0L;
+        switchedTableBytes = tables != null ? tables.getHeapBytes() : 0L;
+        if (tables != null) {
+            engine.adoptProfileTables(tables);
+            tables.release();
+        }
+        engine.setProfile(requested);
+        requested = -1;
+        readyWithoutTables = false;
+        switches++;
+        maxBefore = 0L;
+        for (long v : recent) maxBefore = Math.max(maxBefore, v);
+        maxAfter = 0L;
+        afterRemaining = WINDOW;
+        return true;
+    }
+
+    /** 描画スレッドで 1 フレームの時間を記録する。切り替え後 WINDOW フレームを測り終えたフレームで true (getLastSummary が新しくなる)。 */
+    public boolean recordFrame(long nanos) {
+        recent[recentPos] = nanos;
+        recentPos = (recentPos + 1) % WINDOW;
+        if (afterRemaining == 0) return false;
+        maxAfter = Math.max(maxAfter, nanos);
+        if (--afterRemaining > 0) return false;
+        final long worst = Math.max(maxBefore, maxAfter);
+        if (worst > budgetNanos) overBudget++;
+        lastSummary = "profile " + switchedFrom + "->" + engine.getProfileIndex()
+                + " wait=" + switchedWaitNanos / 1_000_000L + "ms"
+                + " build=" + switchedBuildNanos / 1_000_000L + "ms"
+                + " tables=" + switchedTableBytes / 1024L + "KB"
+                + " maxFrameBefore=" + toMs(maxBefore) + "ms"
+                + " maxFrameAfter=" + toMs(maxAfter) + "ms"
+                + (worst > budgetNanos ? " OVER" : "");
+        return true;
+    }
+
+    public long getSwitches() { return switches; }
+    /** 切り替えの前後で最長フレームが予算を超えた回数。 */
+    public long getOverBudget() { return overBudget; }
+    /** 最後に測り終えた切り替えの要約。 */
+    public String getLastSummary() { return lastSummary; }
+
+    /**
+     * executor のスレッド。できたテーブルを置く。もっと新しい要求の結果が置いてあれば next を捨てて false
+     * (executor が複数スレッドでも、古い結果が新しい結果を押しのけない)。
+     */
+    private boolean publish(Built next) {
+        while (true) {
+            final Built prev = built.get();
+            if (prev != null && prev.generation > next.generation) {
+                next.tables.release();
+                return false;
+            }
+            if (built.compareAndSet(prev, next)) {
+                if (prev != null) prev.tables.release();
+                return true;
+            }
+        }
+    }
+
+    /** 描画スレッド。要求 gen より前の結果が置いてあれば取り出して捨てる (読んだものだけを外す)。 */
+    private void discardStale(int gen) {
+        final Built b = built.get();
+        if (b != null && b.generation < gen && built.compareAndSet(b, null)) b.tables.release();
+    }
+
+    private static float toMs(long nanos) { return Math.round(nanos / 1e5) / 10f; }
+}
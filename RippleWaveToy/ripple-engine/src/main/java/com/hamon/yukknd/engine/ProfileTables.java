@@ -0,0 +1,45 @@
+package com.hamon.yukknd.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1 つのプロファイル用に前もって作るテーブル (中心水滴の ZEN と HAMON の焼いた列)。
+ * <p>
+ * プロファイル間で違うのは sigma だけで、シェルの 1/sigma^2 や円環はフレームごとに作り直す軽い値なので、
+ * 前もって作る価値があるのは焼くのに数十 ms かかる列だけ。
+ * 列は RippleEngine の FrameSequenceCache と同じ上限で焼き、切り替えるときにそのキャッシュへ移す
+ * (一度使ったプロファイルは、LRU で捨てられるまで焼き直さずに戻れる)。
+ * 参照カウントで持ち、最後の release() で (移していなければ) 列を捨てる。
+ */
+final class ProfileTables {
+    final int profileIdx;
+    final FrameSequenceCache sequences;
+    /** 作るのにかかった時間。 */
+    final long buildNanos;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    private ProfileTables(int profileIdx, FrameSequenceCache sequences, long buildNanos) {
+        this.profileIdx = profileIdx;
+        this.sequences = sequences;
+        this.buildNanos = buildNanos;
+    }
+
+    /**
+     * 描画に使っていない RippleEngine でプロファイル idx の列を、ヒープの上限 budgetBytes で焼く。
+     * どのスレッドからでも呼べる。参照カウント 1 で返す。
+     */
+    static ProfileTables build(int idx, long budgetBytes) {
+        final long start = System.nanoTime();
+        final FrameSequenceCache cache = new FrameSequenceCache(budgetBytes);
+        new RippleEngine().bakeFrameSequences(cache, idx);
+        return new ProfileTables(idx, cache, System.nanoTime() - start);
+    }
+
+    void release() {
+        int n = refs.decrementAndGet();
+        if (n == 0) sequences.clear();
+        else if (n < 0) throw new IllegalStateException("released twice");
+    }
+
+    long getHeapBytes() { return sequences.getHeapBytes(); }
+}
@@ -0,0 +1,165 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * 水滴 1 つ分の寄与 (全シェルの和 × 距離減衰) を、中心からの距離の 2 乗 d2 の関数として持つキャッシュ。
+ * <p>
+ * 中心の水滴 (ZEN / HAMON の自動落下) は倍率がすべて 1 で、違いは年齢だけなので、
+ * (プロファイル, モード, 年齢) ごとに 1 本の表を作れば 2 滴目以降は表を引いて足すだけになる。
+ * <ul>
+ *   <li>対象は中心 (CX, CY) にある単位倍率 (weight / sigma / speed / damping がすべて 1) の水滴で、年齢が整数フレームのとき。
+ *       RAIN の雨粒は位置も倍率も水滴ごとに乱数なので対象外。</li>
+ *   <li>中心もピクセルも整数座標なので d2 は整数になり、表は補間なしで引ける。値は通常パスの shade と同じ式・同じ順で計算するので結果は一致する。</li>
+ *   <li>HAMON の後続リングも同じ表に畳み込む。</li>
+ *   <li>表の合計サイズが budgetBytes を超えたら、最も長く使われていないものから捨てる (LRU)。</li>
+ * </ul>
+ * 参照 (find) は確保しない。スレッドセーフではない (RippleEngine と同じスレッドから使う)。
+ */
+public final class RadialProfileCache {
+    /** 既定のメモリ上限。1 プロファイル × 1 モードの中心水滴の一生 (HAMON で約 150KB) が収まる大きさ。 */
+    public static final int DEFAULT_BUDGET_BYTES = 256 * 1024;
+    /** 表 1 本あたりの管理領域の見積もり (キー・リンク・配列ヘッダ)。 */
+    private static final int ENTRY_OVERHEAD_BYTES = 48;
+    private static final int NONE = -1;
+
+    private final long budgetBytes;
+    private final int maxEntries;
+    private final long[] keys;
+    private final float[][] data;
+    /** 表 e の data[e][i] は d2 = d2Lo[e] + i の値。 */
+    private final int[] d2Lo;
+    /** LRU リスト (head が最新)。 */
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    /** キーのハッシュ表 (チェイン法)。 */
+    private final int[] buckets;
+    private final int[] chain;
+    private int freeList = NONE;
+    private int entries;
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public RadialProfileCache() { this(DEFAULT_BUDGET_BYTES); }
+
+    public RadialProfileCache(long budgetBytes) {
+        if (budgetBytes <= 0) throw new IllegalArgumentException("budgetBytes=" + budgetBytes);
+        this.budgetBytes = budgetBytes;
+        this.maxEntries = (int)Math.min(1 << 16, Math.max(1L, budgetBytes / ENTRY_OVERHEAD_BYTES));
+        keys = new long[maxEntries];
+        data = new float[maxEntries][];
+        d2Lo = new int[maxEntries];
+        prev = new int[maxEntries];
+        next = new int[maxEntries];
+        chain = new int[maxEntries];
+        buckets = new int[Integer.highestOneBit(maxEntries) * 2];
+        clear();
+    }
+
+    /** (プロファイル, HAMON か, 年齢) のキー。 */
+    static long key(int profileIdx, boolean hamon, int ageFrames) {
+        return ((long)ageFrames << 32) | ((long)profileIdx << 1) | (hamon ? 1L : 0L);
+    }
+
+    /** key の表の番号。無ければ NONE (-1)。見つかれば最新にする。 */
+    int find(long key) {
+        for (int e = buckets[bucketOf(key)]; e != NONE; e = chain[e]) {
+            if (keys[e] == key) {
+                hits++;
+                if (e != head) { unlink(e); linkFirst(e); }
+                return e;
+            }
+        }
+        misses++;
+        return NONE;
+    }
+
+    /**
+     * key の表を d2 = lo .. lo+len-1 の範囲で確保して番号を返す。中身は呼び出し側が data(e) に書く。
+     * 上限を超える分は古いものから捨てる。1 本で上限を超える場合は NONE (キャッシュしない)。
+     */
+    int insert(long key, int lo, int len) {
+        long need = sizeOf(len);
+        if (need > budgetBytes) return NONE;
+        while (tail != NONE && (bytes + need > budgetBytes || freeList == NONE)) evict(tail);
+        int e = freeList;
+        freeList = chain[e];
+        data[e] = new float[len];
+        keys[e] = key;
+        d2Lo[e] = lo;
+        int b = bucketOf(key);
+        chain[e] = buckets[b];
+        buckets[b] = e;
+        linkFirst(e);
+        entries++;
+        bytes += need;
+        return e;
+    }
+
+    float[] data(int e) { return data[e]; }
+    int d2Lo(int e) { return d2Lo[e]; }
+
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        for (int e = 0; e < maxEntries; e++) { chain[e] = e + 1 < maxEntries ? e + 1 : NONE; data[e] = null; }
+        freeList = 0;
+        head = tail = NONE;
+        entries = 0;
+        bytes = 0L;
+    }
+
+    public void resetStats() { hits = misses = evictions = 0L; }
+
+    public long getBudgetBytes() { return budgetBytes; }
+    public long getBytes() { return bytes; }
+    public int getEntries() { return entries; }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+    /** ヒット率 (0..1)。参照が無ければ 0。 */
+    public float getHitRate() { long n = hits + misses; return n == 0 ? 0f : (float)hits / n; }
+
+    private void evict(int e) {
+        unlink(e);
+        int b = bucketOf(keys[e]);
+        if (buckets[b] == e) {
+            buckets[b] = chain[e];
+        } else {
+            int p = buckets[b];
+            while (chain[p] != e) p = chain[p];
+            chain[p] = chain[e];
+        }
+        chain[e] = freeList;
+        freeList = e;
+        entries--;
+        bytes -= sizeOf(data[e].length);
+        data[e] = null;
+        evictions++;
+    }
+
+    private void linkFirst(int e) {
+        prev[e] = NONE;
+        next[e] = head;
+        if (head != NONE) prev[head] = e;
+        head = e;
+        if (tail == NONE) tail = e;
+    }
+
+    private void unlink(int e) {
+        int p = prev[e], n = next[e];
+        if (p != NONE) next[p] = n; else head = n;
+        if (n != NONE) prev[n] = p; else tail = p;
+    }
+
+    private int bucketOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 40) & (buckets.length - 1);
+    }
+
+    private static long sizeOf(int len) { return (long)len * 4L + ENTRY_OVERHEAD_BYTES; }
+}
@@ -0,0 +1,280 @@
+package com.hamon.yukknd.engine;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * トイサービスの動きを仮想時計と固定シードの乱数で再現するヘッドレスドライバー。
+ * <p>
+ * 時刻 k*40ms にフレーム k を描画する。各フレームの前に、その時刻までのスクリプトイベントと
+ * 自動落下タイマーを時刻順に InputQueue に積み、フレームの先頭でまとめて反映する (サービスと同じ)。
+ * 接続 (connect) だけはサービスの scheduler.post() と同じく直接実行する。
+ * AOD 中はサービスと同じく 40ms ごとの描画を止め (表示は最後の AOD フレームのまま)、aod イベントごとに
+ * 経過時間 × AOD_FRAMES_PER_MINUTE だけ進めて低コスト描画で 1 枚描く。
+ * 長押し・AOD・シェイク・自動落下の規則は RippleWaveToyService に合わせてある。
+ * profile はサービスの設定変更と同じく ProfileSwitcher で予約し、フレームの先頭で切り替える
+ * (テーブルはその場で作るので、予約したフレームで切り替わる)。
+ * フレームレートは 25 FPS 固定で、FrameRateGovernor は使わない。
+ * <p>
+ * コマンドライン:
+ * <pre>
+ * record &lt;script&gt; &lt;out.hmf&gt; [path]
+ * check  &lt;script&gt; &lt;golden.hmf&gt; [tolerance] [path]   (不一致なら終了コード 1)
+ * </pre>
+ * path は float (既定) / fixed (固定小数点) / baked (中心水滴を FrameSequenceCache から再生)。
+ */
+public final class ReplayDriver {
+    public static final long FRAME_MS = 40L;
+    private static final long SHAKE_GUARD_MS = 800L;
+    private static final float AOD_FRAMES_PER_MINUTE = 1f;
+    private static final int AOD_MAX_DROPS = 2;
+    private static final int AOD_LEVELS = 8;
+    /** 同時に持てる水滴の数 (サービスと同じ)。 */
+    private static final int MAX_DROPS = 64;
+
+    /** 描画したフレームを受け取る。frame は次のフレームで書き換わる。 */
+    public interface FrameSink {
+        void onFrame(int index, int[] frame) throws IOException;
+    }
+
+    private final ReplayScript script;
+    private final RippleEngine engine;
+    private final MemoryFramePresenter presenter = new MemoryFramePresenter();
+    private final FrameRenderer renderer;
+    private final InputQueue input = new InputQueue(64);
+    private final ProfileSwitcher switcher;
+
+    private boolean connected = false;
+    private boolean aod = false;
+    private int mode = RippleEngine.MODE_ZEN;
+    private int profile = 0;
+    private long nextAutoDropMs = Long.MAX_VALUE;
+    private long autoDropPeriodMs = 0L;
+    private long lastShakeMs = Long.MIN_VALUE / 2;
+    private boolean aodFramePending = false;
+    private boolean aodRendering = false;
+    private long lastAodFrameMs;
+    private float aodFrameDebt;
+
+    public ReplayDriver(ReplayScript script) {
+        this.script = script;
+        this.engine = new RippleEngine(new Random(script.getSeed()), MAX_DROPS);
+        this.renderer = new FrameRenderer(engine, presenter);
+        this.switcher = new ProfileSwitcher(engine, Runnable::run);
+    }
+
+    /** 描画パスの切替など、run() の前に設定を変えるため。 */
+    public RippleEngine getEngine() { return engine; }
+    public FrameRenderer getRenderer() { return renderer; }
+
+    /** スクリプトの最後まで実行する。戻り値は描画したフレーム数。 */
+    public int run(FrameSink sink) throws IOException {
+        final List<ReplayScript.Event> events = script.getEvents();
+        final int frames = (int)(script.getDurationMs() / FRAME_MS) + 1;
+        int next = 0;
+        for (int k = 0; k < frames; k++) {
+            final long now = k * FRAME_MS;
+            while (true) {
+                long tEvent = next < events.size() ? events.get(next).timeMs : Long.MAX_VALUE;
+                long tTimer = nextAutoDropMs;
+                if (tEvent > now && tTimer > now) break;
+                if (tEvent <= tTimer) {
+                    apply(events.get(next++));
+                } else {
+                    if (!aod) input.offerSpawnTick();
+                    nextAutoDropMs += autoDropPeriodMs;
+                }
+            }
+            if (aod) {
+                if (aodFramePending) renderAodFrame(now);
+            } else {
+                if (aodRendering) {
+                    aodRendering = false;
+                    engine.setLowPowerRender(0, 0);
+                }
+                switcher.applyPending();
+                input.drain(engine);
+                if (connected) engine.step();
+                renderer.renderFrame();
+            }
+            sink.onFrame(k, renderer.getFrame());
+        }
+        return frames;
+    }
+
+    private void renderAodFrame(long nowMs) {
+        aodFramePending = false;
+        input.drain(engine);
+        if (!aodRendering) {
+            aodRendering = true;
+            engine.setLowPowerRender(AOD_MAX_DROPS, AOD_LEVELS);
+            aodFrameDebt = 0f;
+        } else {
+            aodFrameDebt += (nowMs - lastAodFrameMs) * (AOD_FRAMES_PER_MINUTE / 60_000f);
+            final int frames = (int)aodFrameDebt;
+            if (frames > 0) {
+                aodFrameDebt -= frames;
+                engine.step(frames);
+            }
+        }
+        lastAodFrameMs = nowMs;
+        if (connected) renderer.renderFrame();
+    }
+
+    private void apply(ReplayScript.Event e) {
+        switch (e.type) {
+            case ReplayScript.CONNECT:
+                connected = true;
+                aod = false;
+                aodFramePending = false;
+                if (aodRendering) { aodRendering = false; engine.setLowPowerRender(0, 0); }
+                mode = RippleEngine.MODE_ZEN;
+                input.discard();
+                engine.resetScene();
+                engine.setMode(RippleEngine.MODE_ZEN);
+                engine.setProfile(profile);
+                engine.spawnTick();
+                renderer.invalidate();
+                startAutoDrop(e.timeMs, 10_000L, 10_000L);
+                break;
+            case ReplayScript.LONG_PRESS:
+                mode = (mode + 1) % RippleEngine.MODE_COUNT;
+                input.offerSetMode(mode);
+                if (RippleEngine.isRainMode(mode)) {
+                    startAutoDrop(e.timeMs, 200L, 1400L);
+                    input.offerRainBurst(3);
+                } else {
+                    startAutoDrop(e.timeMs, 10_000L, 10_000L);
+                    if (mode == RippleEngine.MODE_HAMON) input.offerSpawnTick();
+                }
+                break;
+            case ReplayScript.AOD:
+                if (!aod) {
+                    aod = true;
+                    nextAutoDropMs = Long.MAX_VALUE;
+                }
+                aodFramePending = true;
+                break;
+            case ReplayScript.ACTIVE:
+                if (aod) {
+                    aod = false;
+                    aodFramePending = false;
+                    if (RippleEngine.isRainMode(mode)) startAutoDrop(e.timeMs, 200L, 1400L);
+                    else startAutoDrop(e.timeMs, 10_000L, 10_000L);
+                }
+                break;
+            case ReplayScript.SHAKE:
+                if (e.timeMs - lastShakeMs > SHAKE_GUARD_MS) {
+                    lastShakeMs = e.timeMs;
+                    if (!aod && RippleEngine.isRainMode(mode)) input.offerShake(8);
+                }
+                break;
+            case ReplayScript.DROP:
+                input.offerDrop(e.x, e.y);
+                break;
+            case ReplayScript.PROFILE:
+                if (e.value >= engine.getProfileCount()) throw new IllegalArgumentException("profile " + e.value);
+                if (e.value != profile) {
+                    profile = e.value;
+                    switcher.request(profile);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("event type " + e.type);
+        }
+    }
+
+    private void startAutoDrop(long nowMs, long initialDelayMs, long periodMs) {
+        nextAutoDropMs = nowMs + initialDelayMs;
+        autoDropPeriodMs = periodMs;
+    }
+
+    /** スクリプトを実行して全フレームを out に書く。 */
+    public static int record(ReplayScript script, String path, OutputStream out) throws IOException {
+        ReplayDriver driver = new ReplayDriver(script);
+        usePath(driver.getEngine(), path);
+        try (final FrameDump.Writer w = new FrameDump.Writer(out, RippleEngine.W, RippleEngine.H)) {
+            return driver.run((index, frame) -> w.write(frame));
+        }
+    }
+
+    /** スクリプトを実行してゴールデンと比べる。 */
+    public static GoldenComparator.Result check(ReplayScript script, String path, InputStream golden, int tolerance) throws IOException {
+        ReplayDriver driver = new ReplayDriver(script);
+        usePath(driver.getEngine(), path);
+        final GoldenComparator cmp = new GoldenComparator(tolerance);
+        final GoldenComparator.Result result = new GoldenComparator.Result();
+        try (final FrameDump.Reader g = new FrameDump.Reader(golden)) {
+            if (g.getWidth() != RippleEngine.W || g.getHeight() != RippleEngine.H) {
+                throw new IOException("golden size " + g.getWidth() + "x" + g.getHeight());
+            }
+            final int[] expected = new int[RippleEngine.W * RippleEngine.H];
+            driver.run((index, frame) -> {
+                if (result.lengthMismatch) return;
+                if (!g.next(expected)) { result.lengthMismatch = true; return; }
+                cmp.compareFrame(result, expected, frame);
+            });
+            if (!result.lengthMismatch && g.next(expected)) result.lengthMismatch = true;
+        }
+        return result;
+    }
+
+    /** 描画パスを選ぶ (float / fixed / baked)。 */
+    private static void usePath(RippleEngine engine, String path) {
+        switch (path) {
+            case "float":
+                break;
+            case "fixed":
+                engine.setFixedPointRender(true);
+                break;
+            case "baked": {
+                // サービスのウォームアップと同じく今のプロファイルの列だけ先に焼く (ほかは ProfileSwitcher が焼く)
+                final FrameSequenceCache cache = new FrameSequenceCache();
+                engine.bakeFrameSequences(cache, engine.getProfileIndex());
+                engine.setFrameSequenceCache(cache);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("path " + path);
+        }
+    }
+
+    private static ReplayScript load(String path) throws IOException {
+        try (Reader r = new InputStreamReader(new BufferedInputStream(new FileInputStream(path)), StandardCharsets.UTF_8)) {
+            return ReplayScript.parse(r);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("record")) {
+            String path = args.length > 3 ? args[3] : "float";
+            int frames;
+            try (OutputStream out = new FileOutputStream(args[2])) {
+                frames = record(load(args[1]), path, out);
+            }
+            System.out.println("recorded " + frames + " frames to " + args[2]);
+        } else if (args.length >= 3 && args[0].equals("check")) {
+            int tolerance = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            String path = args.length > 4 ? args[4] : "float";
+            GoldenComparator.Result result;
+            try (InputStream in = new FileInputStream(args[2])) {
+                result = check(load(args[1]), path, in, tolerance);
+            }
+            System.out.println(args[2] + ": " + result);
+            if (!result.passed()) System.exit(1);
+        } else {
+            System.err.println("usage: record <script> <out.hmf> [float|fixed|baked]");
+            System.err.println("       check <script> <golden.hmf> [tolerance] [float|fixed|baked]");
+            System.exit(2);
+        }
+    }
+}
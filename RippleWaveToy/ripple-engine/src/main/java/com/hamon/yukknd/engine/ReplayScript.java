@@ -0,0 +1,136 @@
+package com.hamon.yukknd.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ReplayDriver に流すイベント列。時刻は仮想時計のミリ秒。
+ * <p>
+ * テキスト形式 (1 行 1 項目、# 以降はコメント):
+ * <pre>
+ * seed 42
+ * duration 60000
+ * 0     connect
+ * 2000  longpress
+ * 2100  shake
+ * 3000  aod
+ * 4000  active
+ * 5000  drop 6.5 18
+ * 6000  profile 1
+ * </pre>
+ * connect / longpress / aod / active / shake はトイサービスの onServiceConnected / EVENT_CHANGE /
+ * EVENT_AOD / その他のイベント / シェイク検出に対応する。drop は指定位置に水滴を 1 つ追加する。
+ * profile は設定のプロファイルの変更 (描画中の切り替え) に対応する。
+ */
+public final class ReplayScript {
+    public static final int CONNECT = 0;
+    public static final int LONG_PRESS = 1;
+    public static final int AOD = 2;
+    public static final int ACTIVE = 3;
+    public static final int SHAKE = 4;
+    public static final int DROP = 5;
+    public static final int PROFILE = 6;
+
+    private static final String[] NAMES = { "connect", "longpress", "aod", "active", "shake", "drop", "profile" };
+
+    public static final class Event {
+        public final long timeMs;
+        public final int type;
+        public final float x;
+        public final float y;
+        /** profile のプロファイル番号。 */
+        public final int value;
+
+        Event(long timeMs, int type, float x, float y, int value) {
+            this.timeMs = timeMs;
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.value = value;
+        }
+
+        @Override public String toString() {
+            return timeMs + " " + NAMES[type] + (type == DROP ? " " + x + " " + y : "") + (type == PROFILE ? " " + value : "");
+        }
+    }
+
+    private long seed = 0L;
+    private long durationMs = 0L;
+    private final List<Event> events = new ArrayList<>();
+
+    public long getSeed() { return seed; }
+    public ReplayScript setSeed(long seed) { this.seed = seed; return this; }
+    public long getDurationMs() { return durationMs; }
+    public ReplayScript setDurationMs(long durationMs) { this.durationMs = durationMs; return this; }
+
+    /** 時刻順 (同時刻は追加順) のイベント。 */
+    public List<Event> getEvents() { return Collections.unmodifiableList(events); }
+
+    public ReplayScript add(long timeMs, int type) {
+        if (type == DROP) throw new IllegalArgumentException("drop needs a position");
+        if (type == PROFILE) throw new IllegalArgumentException("profile needs an index");
+        return insert(new Event(timeMs, type, 0f, 0f, 0));
+    }
+
+    public ReplayScript addDrop(long timeMs, float x, float y) {
+        return insert(new Event(timeMs, DROP, x, y, 0));
+    }
+
+    public ReplayScript addProfile(long timeMs, int profile) {
+        if (profile < 0) throw new IllegalArgumentException("profile " + profile);
+        return insert(new Event(timeMs, PROFILE, 0f, 0f, profile));
+    }
+
+    private ReplayScript insert(Event e) {
+        if (e.timeMs < 0) throw new IllegalArgumentException("negative time: " + e.timeMs);
+        int i = events.size();
+        while (i > 0 && events.get(i - 1).timeMs > e.timeMs) i--;
+        events.add(i, e);
+        if (e.timeMs > durationMs) durationMs = e.timeMs;
+        return this;
+    }
+
+    /** テキスト形式を読む。書式の誤りは行番号つきの IllegalArgumentException。 */
+    public static ReplayScript parse(Reader in) throws IOException {
+        ReplayScript script = new ReplayScript();
+        long duration = -1L;
+        BufferedReader r = new BufferedReader(in);
+        String line;
+        int lineNo = 0;
+        while ((line = r.readLine()) != null) {
+            lineNo++;
+            int hash = line.indexOf('#');
+            if (hash >= 0) line = line.substring(0, hash);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] tok = line.split("\\s+");
+            try {
+                if (tok[0].equals("seed")) {
+                    script.setSeed(Long.parseLong(tok[1]));
+                } else if (tok[0].equals("duration")) {
+                    duration = Long.parseLong(tok[1]);
+                } else {
+                    long t = Long.parseLong(tok[0]);
+                    int type = typeOf(tok[1]);
+                    if (type < 0) throw new IllegalArgumentException("unknown event '" + tok[1] + "'");
+                    if (type == DROP) script.addDrop(t, Float.parseFloat(tok[2]), Float.parseFloat(tok[3]));
+                    else if (type == PROFILE) script.addProfile(t, Integer.parseInt(tok[2]));
+                    else script.add(t, type);
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("line " + lineNo + ": " + line + " (" + e.getMessage() + ")", e);
+            }
+        }
+        if (duration >= 0) script.setDurationMs(Math.max(duration, script.durationMs));
+        return script;
+    }
+
+    private static int typeOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) if (NAMES[i].equals(name)) return i;
+        return -1;
+    }
+}
@@ -0,0 +1,803 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * プラットフォーム非依存の波紋シミュレーション。
+ * 水滴・プロファイル・3 つのモードを持ち、0..2040 の輝度フレーム (W*H の int[]) を描画する。
+ * スレッドセーフではないので、呼び出し側が単一スレッドから操作すること。
+ */
+public final class RippleEngine {
+    public static final int MODE_ZEN = 0;
+    public static final int MODE_HAMON = 1;
+    public static final int MODE_RAIN = 2;
+    /** 雨粒を波動方程式の水面 (WaveField) に落とすモード。水滴の数によらず 1 フレームのコストが一定。 */
+    public static final int MODE_WAVE = 3;
+    public static final int MODE_COUNT = 4;
+
+    public static final int W = RippleGeometry.W;
+    public static final int H = RippleGeometry.H;
+    public static final float CX = RippleGeometry.CX;
+    public static final float CY = RippleGeometry.CY;
+    public static final float RADIUS = RippleGeometry.RADIUS;
+    public static final float FPS = 25f;
+    public static final int MAX_BRIGHTNESS = 2040;
+    /** 既定の最大水滴数 (コンストラクタで広げられる)。プールの最初の大きさでもある。 */
+    public static final int MAX_DROPS = 8;
+    public static final float MAX_AGE_FRAMES = 520f;
+    public static final float MIN_REPLACE_AGE_FRAMES = 50f;
+    /** スーパーサンプリングの縮小フィルタ。 */
+    public static final int FILTER_BOX = 0;
+    public static final int FILTER_TENT = 1;
+    /** WAVE モードの水面の縁。REFLECT は跳ね返し、ABSORB は吸い込む。 */
+    public static final int RIM_REFLECT = 0;
+    public static final int RIM_ABSORB = 1;
+
+    static final int MAX_SHELLS = 4;
+    /** HAMON の後続リングの数と間隔 (px)。 */
+    private static final int TRAILS = 3;
+    private static final float TRAIL_DELTA = 3.8f;
+    /**
+     * envelope(age) が最大になる年齢 (1 - exp(-age/4) と exp(-0.0065 age) の積、約 14.7)。
+     * これを過ぎた水滴は明るさの上限が単調に下がるので、見えなくなった時点で消してよい。
+     */
+    private static final float ENVELOPE_PEAK_AGE = 15f;
+    /** 中心から最も遠いアクティブピクセルまでの距離の 2 乗 (RadialProfileCache の表の上限)。 */
+    private static final int CENTER_MAX_D2;
+    static {
+        int max = 0;
+        for (int n = 0; n < RippleGeometry.ACTIVE.length; n++) {
+            int dx = (int)(RippleGeometry.ACTIVE_X[n] - RippleGeometry.CX);
+            int dy = (int)(RippleGeometry.ACTIVE_Y[n] - RippleGeometry.CY);
+            max = Math.max(max, dx * dx + dy * dy);
+        }
+        CENTER_MAX_D2 = max;
+    }
+    /** 中心からアクティブピクセルまでの距離 (DropPool の距離場と同じ式)。FrameSequenceCache を焼くときに使う。 */
+    private static final float[] CENTER_DIST = new float[RippleGeometry.ACTIVE.length];
+    static { RippleGeometry.distanceField(CX, CY, CENTER_DIST); }
+    /** 焼くフレーム数。水滴は年齢が MAX_AGE_FRAMES を超えたフレームで消える。 */
+    private static final int BAKED_FRAMES = (int)MAX_AGE_FRAMES + 1;
+    private static final RippleMath MATH = RippleMath.DEFAULT;
+
+    private final Profile[] profiles = new Profile[] {
+            new Profile(RADIUS / (2.5f * FPS), 1.8f, 0.07f),
+            new Profile(RADIUS / (2.5f * FPS), 1.6f, 0.07f),
+            new Profile(RADIUS / (2.5f * FPS), 2.1f, 0.07f),
+    };
+    private int profileIdx = 0;
+    private int mode = MODE_ZEN;
+    private float t = 0.0f;
+    private final Random random;
+    private final int maxDrops;
+    /**
+     * 明るさの上限がこれ未満になった水滴は消す。出力のゲイン 1.1 を掛けても、maxDrops 滴ぶん重なって輝度 1 段階の半分に届かない値。
+     */
+    private final float retireBound;
+    // 以下の水滴・シェル配列は TiledRenderer からも prepareFrame() の後に読む。プールが広がったら prepareFrame() で広げる
+    final DropPool pool;
+    int[] frameSlots = new int[MAX_DROPS];
+    int[] shellCount = new int[MAX_DROPS];
+    float[] shellR0 = new float[MAX_DROPS * MAX_SHELLS];
+    float[] shellInvSig2 = new float[MAX_DROPS * MAX_SHELLS];
+    float[] shellAmp = new float[MAX_DROPS * MAX_SHELLS];
+    float[] ringInner = new float[MAX_DROPS];
+    float[] ringOuter = new float[MAX_DROPS];
+    private final float[] accum = new float[RippleGeometry.ACTIVE.length];
+    /** false にすると全ピクセル×全水滴を評価する参照パスで描画する (比較用)。 */
+    private boolean sparseRender = true;
+    /** true にすると int / long だけの固定小数点レンダラーで描画する (常にスパース加算)。 */
+    private boolean fixedPointRender = false;
+    private final FixedPointRenderer fixedRenderer = new FixedPointRenderer(MAX_DROPS);
+    /** null ならスーパーサンプリングしない。 */
+    private Supersampler supersampler;
+    /** beginSpawnBatch() 中に addDrop した水滴。endSpawnBatch() でまとめてプールに入れる。 */
+    private boolean batching = false;
+    private int batchCount = 0;
+    private final float[] batchX;
+    private final float[] batchY;
+    private final float[] batchWeight;
+    private final float[] batchSigma;
+    private final float[] batchSpeed;
+    private final float[] batchDamping;
+    private final int[] batchSlots;
+    /** AOD 用の低コスト描画で描く水滴の数と輝度の段階数。0 なら通常の描画。 */
+    private int lowPowerDrops = 0;
+    private int lowPowerLevels = 0;
+    private float[] visibility = new float[MAX_DROPS];
+    /** 雨粒の位置のずれ (px)。 */
+    private float rainBiasX = 0f;
+    private float rainBiasY = 0f;
+    /** 見えなくなって MAX_AGE_FRAMES より前に消した水滴の数。 */
+    private long retiredDrops;
+    /** 中心水滴の半径方向プロファイルのキャッシュ (float のスパースパスだけで使う)。null で無効。 */
+    private RadialProfileCache profileCache = new RadialProfileCache();
+    /** 中心水滴の焼いたフレーム列。null (既定) なら使わない。 */
+    private FrameSequenceCache frameSequences;
+    private final int[] bakedSum = new int[RippleGeometry.ACTIVE.length];
+    /** WAVE モードの水面。ほかのモードに切り替えても、揺れが収まるまで進めて描く。 */
+    private final WaveField wave = new WaveField();
+
+    public RippleEngine() { this(new Random()); }
+    public RippleEngine(Random random) { this(random, MAX_DROPS); }
+
+    /** maxDrops は同時に持てる水滴の数。プールは MAX_DROPS から始めて、足りなくなったら maxDrops まで広げる。 */
+    public RippleEngine(Random random, int maxDrops) {
+        if (maxDrops < 1) throw new IllegalArgumentException("maxDrops=" + maxDrops);
+        this.random = random;
+        this.maxDrops = maxDrops;
+        retireBound = 0.5f / (1.10f * MAX_BRIGHTNESS * maxDrops);
+        pool = new DropPool(Math.min(MAX_DROPS, maxDrops), maxDrops);
+        batchX = new float[maxDrops];
+        batchY = new float[maxDrops];
+        batchWeight = new float[maxDrops];
+        batchSigma = new float[maxDrops];
+        batchSpeed = new float[maxDrops];
+        batchDamping = new float[maxDrops];
+        batchSlots = new int[maxDrops];
+    }
+
+    public int getMaxDrops() { return maxDrops; }
+    public long getRetiredDrops() { return retiredDrops; }
+
+    public int getMode() { return mode; }
+    public void setMode(int mode) { this.mode = mode; }
+    /** 長押しでのモード切替。ZEN → HAMON → RAIN → WAVE → ZEN。切替後のモードを返す。 */
+    public int cycleMode() { mode = (mode + 1) % MODE_COUNT; return mode; }
+
+    /** 自動落下とシェイクで雨粒を降らせるモード (RAIN と WAVE) なら true。 */
+    public static boolean isRainMode(int mode) { return mode == MODE_RAIN || mode == MODE_WAVE; }
+
+    public int getProfileIndex() { return profileIdx; }
+    public Profile getProfile() { return profiles[profileIdx]; }
+    public Profile getProfile(int idx) { return profiles[idx]; }
+    public int getProfileCount() { return profiles.length; }
+
+    /**
+     * プロファイルを切り替える。生存中の水滴も次のフレームから新しいプロファイルで描く (プロファイル間で違うのは sigma だけなので、
+     * リングの位置と減衰はそのまま続く)。焼いた列が無い間は中心水滴も通常の描画になるので、
+     * ProfileSwitcher で先に用意してから切り替えること。
+     */
+    public void setProfile(int idx) {
+        if (idx < 0 || idx >= profiles.length) throw new IllegalArgumentException("profile=" + idx);
+        profileIdx = idx;
+    }
+
+    /** ProfileSwitcher が別に焼いた列を FrameSequenceCache に移す (上限を超える分は古い列から捨てる)。キャッシュが無ければ何もしない。 */
+    void adoptProfileTables(ProfileTables tables) {
+        final FrameSequenceCache cache = frameSequences;
+        if (cache != null) cache.adopt(tables.sequences);
+    }
+
+    /**
+     * プロファイル idx の ZEN と HAMON の列が FrameSequenceCache にあるか、焼けないと分かっていれば true
+     * (切り替えるときに先に焼いておく必要がない)。キャッシュが無ければ true。
+     */
+    boolean hasFrameSequences(int idx) {
+        final FrameSequenceCache cache = frameSequences;
+        if (cache == null) return true;
+        final Profile pf = profiles[idx];
+        return (cache.find(idx, false, pf) >= 0 || cache.isRejected(idx, false))
+                && (cache.find(idx, true, pf) >= 0 || cache.isRejected(idx, true));
+    }
+
+    public boolean isSparseRender() { return sparseRender; }
+    public void setSparseRender(boolean sparse) { sparseRender = sparse; }
+    public boolean isFixedPointRender() { return fixedPointRender; }
+    public void setFixedPointRender(boolean fixed) { fixedPointRender = fixed; }
+
+    /**
+     * factor 倍 (2 か 3) の解像度で描いて filter で 25x25 に縮小する。1 で無効。
+     * 有効な間は固定小数点の設定より優先する (高解像度側は float のテーブル + スパース加算)。
+     */
+    public void setSupersampling(int factor, int filter) {
+        if (factor < 1 || factor > 4) throw new IllegalArgumentException("factor=" + factor);
+        if (filter != FILTER_BOX && filter != FILTER_TENT) throw new IllegalArgumentException("filter=" + filter);
+        if (factor == 1) { supersampler = null; return; }
+        if (supersampler != null && supersampler.factor == factor && supersampler.filter == filter) return;
+        supersampler = new Supersampler(factor, filter);
+    }
+    public int getSupersamplingFactor() { return supersampler != null ? supersampler.factor : 1; }
+
+    /**
+     * AOD 用の低コスト描画。見えやすい順に maxDrops 個の水滴だけを先頭リング 1 本 (HAMON の後続リングなし) で描き、
+     * 輝度を 0 と 2040 を含む levels 段階に丸める。maxDrops が 0 なら通常の描画に戻す。
+     * 有効な間はスーパーサンプリング・固定小数点・プロファイルキャッシュより優先する。
+     */
+    public void setLowPowerRender(int maxDrops, int levels) {
+        if (maxDrops < 0 || maxDrops > this.maxDrops) throw new IllegalArgumentException("maxDrops=" + maxDrops);
+        if (maxDrops > 0 && (levels < 2 || levels > MAX_BRIGHTNESS + 1)) throw new IllegalArgumentException("levels=" + levels);
+        lowPowerDrops = maxDrops;
+        lowPowerLevels = maxDrops > 0 ? levels : 0;
+    }
+    public boolean isLowPowerRender() { return lowPowerDrops > 0; }
+
+    /** 半径方向プロファイルのキャッシュ。null で無効 (毎フレーム全シェルを評価する)。 */
+    public RadialProfileCache getProfileCache() { return profileCache; }
+    public void setProfileCache(RadialProfileCache cache) { profileCache = cache; }
+
+    /**
+     * 焼いたフレーム列の再生。生存水滴がすべて中心の単位水滴 (自動落下) で年齢が整数のとき、
+     * 描画の代わりに cache から各水滴のフレームを足して出す (重なりの誤差は FrameSequenceCache を参照)。
+     * 列が無いフレームは通常の描画に戻す (描画スレッドでは焼かない。bakeFrameSequences や ProfileTables で先に焼いておく)。
+     * null (既定) で無効。float のスパースパスのときだけ使う。
+     */
+    public FrameSequenceCache getFrameSequenceCache() { return frameSequences; }
+    public void setFrameSequenceCache(FrameSequenceCache cache) { frameSequences = cache; }
+
+    /** WAVE モードの水面の縁 (RIM_REFLECT / RIM_ABSORB)。 */
+    public int getWaveRim() { return wave.getRim(); }
+    public void setWaveRim(int rim) {
+        if (rim != RIM_REFLECT && rim != RIM_ABSORB) throw new IllegalArgumentException("rim=" + rim);
+        wave.setRim(rim);
+    }
+
+    /**
+     * 全プロファイルの ZEN と HAMON の列を cache に焼く (起動前の準備やファイルへの保存用)。
+     * 描画中の状態は変えないが、ほかの描画と同じく単一スレッドから呼ぶこと。戻り値は焼けた列の数。
+     */
+    public int bakeFrameSequences(FrameSequenceCache cache) {
+        int baked = 0;
+        for (int i = 0; i < profiles.length; i++) baked += bakeFrameSequences(cache, i);
+        return baked;
+    }
+
+    /** プロファイル idx の ZEN と HAMON の列だけを cache に焼く。戻り値は焼けた列の数。 */
+    public int bakeFrameSequences(FrameSequenceCache cache, int idx) {
+        int baked = 0;
+        if (bake(cache, idx, false) >= 0) baked++;
+        if (bake(cache, idx, true) >= 0) baked++;
+        return baked;
+    }
+
+    public float getTime() { return t; }
+
+    /** 生存水滴の数。WAVE の水面が揺れている間は、静かになってから落ちた雨粒の数も足す。 */
+    public int liveDropCount() { return pool.count + (wave.isActive() ? wave.getImpulses() : 0); }
+
+    /** 生存水滴のうち最速のリング速度 (px / 基準フレーム)。水面が揺れていればその波の速さも含む。水滴が無ければ 0。 */
+    public float maxRingSpeed() {
+        float maxScale = 0f;
+        for (int i = 0; i < pool.count; i++) maxScale = Math.max(maxScale, pool.speedScale[pool.order[i]]);
+        float speed = profiles[profileIdx].speed * maxScale;
+        return wave.isActive() ? Math.max(speed, wave.getSpeed()) : speed;
+    }
+
+    public void step() { step(1f); }
+
+    /** dt フレーム (25 FPS 基準) 進める。 */
+    public void step(float dt) {
+        t += dt;
+        pool.advance(dt);
+        removeFadedDrops();
+        wave.step(dt);
+    }
+
+    public void resetScene() {
+        t = 0f;
+        pool.clear();
+        wave.clear();
+    }
+
+    public void addDrop(float x, float y) { addDrop(x, y, 1f, 1f); }
+    public void addDrop(float x, float y, float weight, float sigmaScale) { addDrop(x, y, weight, sigmaScale, 1f, 1f); }
+    public void addDrop(float x, float y, float weight, float sigmaScale, float speedScale, float dampingScale) {
+        if (mode == MODE_WAVE) {
+            // 水面に山を足すだけなのでプールもバッチも使わない (速さ・減衰の倍率は水面全体で共通)
+            final Profile pf = profiles[profileIdx];
+            wave.setSpeed(pf.speed);
+            wave.impulse(x, y, weight, pf.sigma * 0.7f * sigmaScale);
+            return;
+        }
+        if (batching) {
+            // プールに入るのは最大 maxDrops 個なので、それを超えた分は乱数だけ消費して捨てる
+            if (batchCount == maxDrops) return;
+            int k = batchCount++;
+            batchX[k] = x; batchY[k] = y; batchWeight[k] = weight;
+            batchSigma[k] = sigmaScale; batchSpeed[k] = speedScale; batchDamping[k] = dampingScale;
+            return;
+        }
+        pool.spawn(x, y, weight, sigmaScale, speedScale, dampingScale, profiles[profileIdx].damping, mode == MODE_RAIN);
+    }
+
+    /**
+     * これ以降の addDrop (spawnTick / spawnRainBurst を含む) をためておき、endSpawnBatch() でまとめて追加する。
+     * 置き換えるスロットはプールを 1 回なめて決めるので、1 個ずつ追加するより速い。結果は 1 個ずつ追加した場合と同じ。
+     * ただし maxDrops を超えた分は捨て、満杯のプールに年齢 0 の水滴 (同じフレームで追加したもの) があるときは
+     * 置き換え先が変わることがある。バッチ中にモードやプロファイルを変えないこと。
+     */
+    public void beginSpawnBatch() {
+        batching = true;
+        batchCount = 0;
+    }
+
+    /** ためた水滴を追加する。戻り値は実際に追加した数。 */
+    public int endSpawnBatch() {
+        batching = false;
+        final int n = batchCount;
+        batchCount = 0;
+        if (n == 0) return 0;
+        final int picked = pool.pickSlots(n, mode == MODE_RAIN, batchSlots);
+        final float damping = profiles[profileIdx].damping;
+        for (int k = 0; k < picked; k++) {
+            pool.spawnAt(batchSlots[k], batchX[k], batchY[k], batchWeight[k], batchSigma[k], batchSpeed[k], batchDamping[k], damping);
+        }
+        return picked;
+    }
+
+    /**
+     * MAX_AGE_FRAMES を過ぎた水滴と、envelope の山を過ぎて明るさの上限 (visibleBound) が retireBound を下回った水滴を消す。
+     * リングが円の外へ出きった水滴の上限は 0 なので、ここで消しても描画は変わらない。
+     */
+    private void removeFadedDrops() {
+        final DropPool p = pool;
+        p.removeOlderThan(MAX_AGE_FRAMES);
+        final Profile pf = profiles[profileIdx];
+        for (int i = p.count - 1; i >= 0; i--) {
+            final int slot = p.order[i];
+            if ((p.age[slot] - 2f * TRAILS) / p.dampingScale[slot] < ENVELOPE_PEAK_AGE) continue;
+            if (visibleBound(slot, pf) < retireBound) {
+                p.remove(slot);
+                retiredDrops++;
+            }
+        }
+    }
+
+    /**
+     * slot の水滴が円マスクの内側に出しうる明るさの上限 (出力ゲイン前)。シェルごとに振幅 × 円環のいちばん内側での距離減衰を足す。
+     * モードが後で HAMON に変わっても消しすぎないよう、後続リングは常に含める。円環がマスクの外に出きったシェルは 0。
+     */
+    private float visibleBound(int slot, Profile pf) {
+        final DropPool p = pool;
+        final float age = p.age[slot];
+        final float weight = p.weight[slot];
+        final float sigmaScale = p.sigmaScale[slot];
+        final float dampingScale = p.dampingScale[slot];
+        final float a = p.dampingA[slot];
+        final float reach = maskReach(slot);
+        final float r0 = pf.speed * p.speedScale[slot] * age;
+        float bound = shellBound(r0, pf.sigma * sigmaScale, MATH.envelope(age / dampingScale) * weight, a, reach);
+        for (int k = 1; k <= TRAILS; k++) {
+            float rk = r0 - k * TRAIL_DELTA;
+            if (rk < 0f) break;
+            float envk = MATH.envelope(Math.max(0f, (age - 2.0f * k)) / dampingScale);
+            bound += shellBound(rk, (pf.sigma * (1.0f + 0.25f * k)) * sigmaScale, RippleMath.TRAIL_GAIN[k] * weight * envk, a, reach);
+        }
+        return bound;
+    }
+
+    /**
+     * slot の水滴から円マスクのいちばん遠い点までの距離。これより外側の半径にあるシェルは見えない。
+     * 超解像のサンプルはピクセルから 1 px 未満ずれるので、その分も含める。
+     */
+    private float maskReach(int slot) {
+        final float dx = pool.x[slot] - CX;
+        final float dy = pool.y[slot] - CY;
+        return (float)Math.sqrt(dx * dx + dy * dy) + RippleGeometry.MASK_OUTER + 1f;
+    }
+
+    private static float shellBound(float r, float sigma, float amp, float a, float reach) {
+        float near = r - MATH.gaussCutoff * sigma;
+        if (near > reach) return 0f;
+        return amp * MATH.expNeg(a * Math.max(0f, near));
+    }
+
+    /** 雨粒を落とす位置を (dx, dy) px ずらす (傾きで片寄らせるため)。乱数の使い方は変わらない。 */
+    public void setRainBias(float dx, float dy) { rainBiasX = dx; rainBiasY = dy; }
+    public float getRainBiasX() { return rainBiasX; }
+    public float getRainBiasY() { return rainBiasY; }
+
+    /** 自動落下タイマー 1 回分。RAIN / WAVE ではランダムな数の雨粒、それ以外は中心に 1 滴。 */
+    public void spawnTick() {
+        if (isRainMode(mode)) { spawnRainStep(); }
+        else { addDrop(CX, CY); }
+    }
+    public void spawnRainBurst(int count) { for (int k = 0; k < count; k++) addRainRandomDrop(); }
+    private void spawnRainStep() {
+        double u = random.nextDouble();
+        int n;
+        if (u < 0.35) n = 0;
+        else if (u < 0.85) n = 1;
+        else if (u < 0.97) n = 2;
+        else n = 3;
+        for (int i = 0; i < n; i++) addRainRandomDrop();
+    }
+    public void addRainRandomDrop() {
+        double theta = 2.0 * Math.PI * random.nextDouble();
+        double rad = RADIUS * Math.sqrt(random.nextDouble());
+        double px = CX + rad * Math.cos(theta);
+        double py = CY + rad * Math.sin(theta);
+        if (rainBiasX != 0f || rainBiasY != 0f) {
+            // ずらした先が円の外なら、中心との線上で円の縁まで戻す
+            double dx = px + rainBiasX - CX;
+            double dy = py + rainBiasY - CY;
+            double d = Math.sqrt(dx * dx + dy * dy);
+            double k = d > RADIUS ? RADIUS / d : 1.0;
+            px = CX + dx * k;
+            py = CY + dy * k;
+        }
+        float x = clamp((float)px, 0f, W - 1);
+        float y = clamp((float)py, 0f, H - 1);
+        float weight = 0.8f + (random.nextFloat() * 0.6f);
+        if (random.nextFloat() < 0.10f) weight = 1.3f + random.nextFloat() * 0.5f;
+        float sigmaScale = 1.0f + (random.nextFloat() * 0.35f);
+        float speedScale = 1.02f + (random.nextFloat() * 0.24f);
+        if (random.nextFloat() < 0.06f) speedScale = 0.92f + (random.nextFloat() * 0.10f);
+        float dampingScale = 0.9f + (random.nextFloat() * 0.3f);
+        addDrop(x, y, weight, sigmaScale, speedScale, dampingScale);
+    }
+
+    private static float clamp(float v, float lo, float hi) { return v < lo ? lo : (v > hi ? hi : v); }
+
+    /**
+     * 現在の状態を frame (長さ W*H) に 0..2040 の輝度で描画する。円外のピクセルは 0。
+     * WAVE の水面が揺れている間は LED の解像度の float パスで描き、水面の高さを足す
+     * (スーパーサンプリング・固定小数点・焼いたフレーム列は使わない)。
+     */
+    public void render(int[] frame) {
+        final Profile pf = profiles[profileIdx];
+        if (lowPowerDrops > 0) {
+            accumulateSparse(selectVisible(prepareFrame(), lowPowerDrops), false);
+            wave.accumulate(accum);
+            writeFrame(frame, lowPowerLevels);
+            return;
+        }
+        final boolean waves = wave.isActive();
+        if (!waves) {
+            if (supersampler != null) { supersampler.render(this, frame); return; }
+            if (fixedPointRender) { fixedRenderer.render(pool, pf, mode == MODE_HAMON, frame); return; }
+            if (frameSequences != null && sparseRender && renderBaked(frame)) return;
+        }
+        final int nDrops = prepareFrame();
+        if (sparseRender) accumulateSparse(nDrops, profileCache != null); else accumulateFullScan(nDrops);
+        if (waves) wave.accumulate(accum);
+        writeFrame(frame, 0);
+    }
+
+    /** accum を 0..2040 の輝度にして frame に書く。levels > 0 なら levels 段階に丸める。 */
+    private void writeFrame(int[] frame, int levels) {
+        Arrays.fill(frame, 0);
+        final int[] active = RippleGeometry.ACTIVE;
+        final float[] maskTbl = RippleGeometry.ACTIVE_MASK;
+        for (int n = 0; n < active.length; n++) frame[active[n]] = brightness(accum[n], maskTbl[n], levels);
+    }
+
+    /** 加算値 sum を 0..2040 の輝度にする。levels > 0 なら levels 段階に丸める。 */
+    private static int brightness(float sum, float mask, int levels) {
+        float baseN = 0.00f;
+        float gain  = 1.10f;
+        float valN  = baseN + gain * sum;
+        valN *= mask;
+        if (valN < 0f) valN = 0f;
+        if (valN > 1f) valN = 1f;
+        int brightness;
+        if (levels > 0) {
+            int q = (int)(valN * (levels - 1) + 0.5f);
+            brightness = (q * MAX_BRIGHTNESS + (levels - 1) / 2) / (levels - 1);
+        } else {
+            brightness = (int)(valN * 2040f + 0.5f);
+        }
+        if (brightness < 0) brightness = 0;
+        if (brightness > MAX_BRIGHTNESS) brightness = MAX_BRIGHTNESS;
+        return brightness;
+    }
+
+    /** 生存水滴がすべて焼いた列で出せるなら、各水滴のフレームを足して frame に書いて true。 */
+    private boolean renderBaked(int[] frame) {
+        final FrameSequenceCache cache = frameSequences;
+        final DropPool p = pool;
+        final Profile pf = profiles[profileIdx];
+        final boolean hamon = mode == MODE_HAMON;
+        for (int i = 0; i < p.count; i++) {
+            if (!isCenterUnitDrop(p.order[i], pf.damping) || p.age[p.order[i]] >= BAKED_FRAMES) {
+                cache.countFallback();
+                return false;
+            }
+        }
+        final int seq = cache.find(profileIdx, hamon, pf);
+        if (seq < 0) {
+            cache.countFallback();
+            return false;
+        }
+        Arrays.fill(bakedSum, 0);
+        for (int i = 0; i < p.count; i++) cache.accumulate(seq, (int)p.age[p.order[i]], bakedSum);
+        Arrays.fill(frame, 0);
+        final int[] active = RippleGeometry.ACTIVE;
+        for (int n = 0; n < active.length; n++) frame[active[n]] = Math.min(bakedSum[n], MAX_BRIGHTNESS);
+        frameSequences.countPlayed();
+        return true;
+    }
+
+    /** 中心にある単位倍率の水滴で、年齢が整数フレームで、damping のプロファイルで生成されたものなら true。 */
+    private boolean isCenterUnitDrop(int slot, float damping) {
+        final DropPool p = pool;
+        return p.weight[slot] == 1f && p.sigmaScale[slot] == 1f && p.speedScale[slot] == 1f
+                && p.dampingScale[slot] == 1f && p.dampingA[slot] == damping
+                && p.x[slot] == CX && p.y[slot] == CY && (int)p.age[slot] == p.age[slot];
+    }
+
+    /**
+     * プロファイル idx の中心の単位水滴を年齢ごとに描いて cache に焼く。shade と同じ式・同じ順で計算するので、
+     * 水滴 1 つのフレームは通常の描画と一致する。シェルの 0 番を作業領域に使う (prepareFrame の前に呼ぶ)。
+     */
+    private int bake(FrameSequenceCache cache, int idx, boolean hamon) {
+        final Profile pf = profiles[idx];
+        return cache.bake(idx, hamon, pf, BAKED_FRAMES, (age, out) -> renderCenterDrop(pf, hamon, age, out));
+    }
+
+    /** 中心の単位水滴の年齢 age のフレームを out (アクティブピクセル順の輝度) に描く。 */
+    private void renderCenterDrop(Profile pf, boolean hamon, int age, int[] out) {
+        final float[] maskTbl = RippleGeometry.ACTIVE_MASK;
+        prepareDrop(0, age, 1f, 1f, 1f, 1f, pf.speed, pf.sigma, hamon);
+        final int s1 = shellCount[0];
+        for (int n = 0; n < out.length; n++) {
+            float r = CENTER_DIST[n];
+            float s = 0f;
+            for (int si = 0; si < s1; si++) {
+                float dr = r - shellR0[si];
+                s += shellAmp[si] * MATH.gauss(dr * dr * shellInvSig2[si]);
+            }
+            out[n] = brightness(MATH.expNeg(pf.damping * r) * s, maskTbl[n], 0);
+        }
+    }
+
+    /**
+     * 焼いた列の描画の指紋。ピクセルの並びと、プロファイル 0 の ZEN / HAMON の中心水滴を何フレームか描いた輝度から作るので、
+     * 式や定数 (シェル・後続リング・エンベロープ・ゲイン・数表) が変われば変わる。FrameSequenceCache がファイルの照合に使う。
+     */
+    static long renderFingerprint() { return Fingerprint.VALUE; }
+
+    private static final class Fingerprint {
+        static final long VALUE = compute();
+
+        private static long compute() {
+            final RippleEngine engine = new RippleEngine(new Random(0L), 1);
+            final int[] active = RippleGeometry.ACTIVE;
+            final int[] out = new int[active.length];
+            long h = mix(0xcbf29ce484222325L, BAKED_FRAMES);
+            for (int n = 0; n < active.length; n++) h = mix(h, active[n]);
+            for (int age : new int[] { 0, 4, 15, 60, 240, BAKED_FRAMES - 1 }) {
+                for (int m = 0; m < 2; m++) {
+                    engine.renderCenterDrop(engine.profiles[0], m == 1, age, out);
+                    for (int n = 0; n < out.length; n++) h = mix(h, out[n]);
+                }
+            }
+            return h;
+        }
+
+        private static long mix(long h, int v) { return (h ^ v) * 0x100000001b3L; }
+    }
+
+    /** 参照パス: 全アクティブピクセルで全水滴を評価する。 */
+    private void accumulateFullScan(int nDrops) {
+        for (int n = 0; n < accum.length; n++) {
+            float sum = 0f;
+            for (int di = 0; di < nDrops; di++) sum += shade(di, n);
+            accum[n] = sum;
+        }
+    }
+
+    /**
+     * 各水滴の寄与を、リングが有意な値を持つ円環 [ringInner, ringOuter] 内のピクセルにだけ加算する。
+     * 行ごとに円環と円マスクの交差区間 (最大 2 区間) を求めるので、コストは面積ではなくリングの周長に比例する。
+     */
+    private void accumulateSparse(int nDrops, boolean useCache) {
+        Arrays.fill(accum, 0f);
+        final DropPool p = pool;
+        for (int di = 0; di < nDrops; di++) {
+            final int slot = frameSlots[di];
+            final float dx0 = p.x[slot];
+            final float dy0 = p.y[slot];
+            final int e = useCache ? cachedProfile(di) : -1;
+            float outer = ringOuter[di];
+            float inner = ringInner[di];
+            float outer2 = outer * outer;
+            float inner2 = inner * inner;
+            int j0 = Math.max(0, (int)Math.ceil(dy0 - outer));
+            int j1 = Math.min(H - 1, (int)Math.floor(dy0 + outer));
+            for (int j = j0; j <= j1; j++) {
+                int rowMin = RippleGeometry.ROW_MIN_X[j];
+                int rowMax = RippleGeometry.ROW_MAX_X[j];
+                if (rowMin > rowMax) continue;
+                float dy = j - dy0;
+                float dy2 = dy * dy;
+                if (dy2 > outer2) continue;
+                float half = (float)Math.sqrt(outer2 - dy2);
+                int lo = Math.max(rowMin, (int)Math.ceil(dx0 - half));
+                int hi = Math.min(rowMax, (int)Math.floor(dx0 + half));
+                if (lo > hi) continue;
+                int rowBase = RippleGeometry.ROW_START[j] - rowMin;
+                if (dy2 < inner2) {
+                    float hole = (float)Math.sqrt(inner2 - dy2);
+                    int leftEnd = Math.min(hi, (int)Math.floor(dx0 - hole));
+                    int rightStart = Math.max(lo, (int)Math.ceil(dx0 + hole));
+                    addSpan(di, e, rowBase, lo, leftEnd, j);
+                    addSpan(di, e, rowBase, rightStart, hi, j);
+                } else {
+                    addSpan(di, e, rowBase, lo, hi, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * 低コスト描画用。prepareFrame() の結果から、先頭リングのピークの明るさ (envelope × weight × 減衰) が大きい順に
+     * 最大 k 個の水滴を選んで前に詰め (描画順は元のまま)、先頭リング 1 本だけにする。リングが円の外に出た水滴は選ばない。
+     * 戻り値は残した水滴の数。
+     */
+    private int selectVisible(int nDrops, int k) {
+        final DropPool p = pool;
+        for (int di = 0; di < nDrops; di++) {
+            final int slot = frameSlots[di];
+            final int s0 = di * MAX_SHELLS;
+            final float r0 = shellR0[s0];
+            final float sig0 = (float)(1.0 / Math.sqrt(shellInvSig2[s0]));
+            final float reach = maskReach(slot);
+            visibility[di] = r0 - MATH.gaussCutoff * sig0 > reach ? 0f : shellAmp[s0] * MATH.expNeg(p.dampingA[slot] * r0);
+        }
+        // 上位 k 個の下限を求める (k は小さいので単純に k 回選ぶ)
+        float threshold = Float.MAX_VALUE;
+        int chosen = 0;
+        while (chosen < k) {
+            float best = 0f;
+            for (int di = 0; di < nDrops; di++) {
+                float v = visibility[di];
+                if (v < threshold && v > best) best = v;
+            }
+            if (best <= 0f) break;
+            threshold = best;
+            for (int di = 0; di < nDrops; di++) if (visibility[di] == best) chosen++;
+        }
+        int n = 0;
+        for (int di = 0; di < nDrops && n < k; di++) {
+            if (!(visibility[di] >= threshold && visibility[di] > 0f)) continue;
+            final int src = di * MAX_SHELLS;
+            final int dst = n * MAX_SHELLS;
+            final float sig0 = (float)(1.0 / Math.sqrt(shellInvSig2[src]));
+            frameSlots[n] = frameSlots[di];
+            shellR0[dst] = shellR0[src];
+            shellInvSig2[dst] = shellInvSig2[src];
+            shellAmp[dst] = shellAmp[src];
+            shellCount[n] = 1;
+            ringInner[n] = Math.max(0f, shellR0[dst] - MATH.gaussCutoff * sig0);
+            ringOuter[n] = shellR0[dst] + MATH.gaussCutoff * sig0;
+            n++;
+        }
+        return n;
+    }
+
+    /** 行 j の lo..hi に frameSlots[di] の水滴の寄与を足す。e >= 0 ならキャッシュの表 e を d2 で引く。 */
+    private void addSpan(int di, int e, int rowBase, int lo, int hi, int j) {
+        if (e < 0) {
+            for (int i = lo; i <= hi; i++) accum[rowBase + i] += shade(di, rowBase + i);
+            return;
+        }
+        final int slot = frameSlots[di];
+        final int x0 = (int)pool.x[slot];
+        final int dy = j - (int)pool.y[slot];
+        final float[] tbl = profileCache.data(e);
+        final int base = dy * dy - profileCache.d2Lo(e);
+        for (int i = lo; i <= hi; i++) {
+            int dx = i - x0;
+            int k = base + dx * dx;
+            if (k >= 0 && k < tbl.length) accum[rowBase + i] += tbl[k];
+        }
+    }
+
+    /**
+     * frameSlots[di] の水滴が RadialProfileCache の対象 (中心・単位倍率・整数フレームの年齢で、
+     * 今のプロファイルで生成されたもの) なら表の番号を返す。表が無ければ prepareShells のシェルから作る。対象外は -1。
+     */
+    private int cachedProfile(int di) {
+        final DropPool p = pool;
+        final int slot = frameSlots[di];
+        final float damping = profiles[profileIdx].damping;
+        if (p.weight[slot] != 1f || p.sigmaScale[slot] != 1f || p.speedScale[slot] != 1f
+                || p.dampingScale[slot] != 1f || p.dampingA[slot] != damping) return -1;
+        final int age = (int)p.age[slot];
+        if (p.x[slot] != CX || p.y[slot] != CY || age != p.age[slot]) return -1;
+        final RadialProfileCache cache = profileCache;
+        final long key = RadialProfileCache.key(profileIdx, mode == MODE_HAMON, age);
+        int e = cache.find(key);
+        if (e >= 0) return e;
+        // スパンの端の丸めを見込んで円環を 1px 広げ、最も遠いアクティブピクセルで切る
+        float inner = Math.max(0f, ringInner[di] - 1f);
+        float outer = ringOuter[di] + 1f;
+        int lo = (int)(inner * inner);
+        int hi = (int)Math.min(CENTER_MAX_D2, (long)Math.ceil(outer * outer));
+        e = cache.insert(key, lo, Math.max(0, hi - lo + 1));
+        if (e < 0) return -1;
+        // shade と同じ式・同じ順で計算する (距離場・減衰場も DropPool と同じ式)
+        final float[] tbl = cache.data(e);
+        final int s0 = di * MAX_SHELLS;
+        final int s1 = s0 + shellCount[di];
+        for (int d2 = lo; d2 <= hi; d2++) {
+            float r = (float)Math.sqrt(d2);
+            float s = 0f;
+            for (int si = s0; si < s1; si++) {
+                float dr = r - shellR0[si];
+                s += shellAmp[si] * MATH.gauss(dr * dr * shellInvSig2[si]);
+            }
+            tbl[d2 - lo] = MATH.expNeg(damping * r) * s;
+        }
+        return e;
+    }
+
+    /** frameSlots[di] の水滴のアクティブピクセル n への寄与 (全シェルの和 × 距離減衰)。 */
+    private float shade(int di, int n) {
+        int f = frameSlots[di] * pool.fieldStride + n;
+        float r = pool.dist[f];
+        float s = 0f;
+        for (int si = di * MAX_SHELLS, end = si + shellCount[di]; si < end; si++) {
+            float dr = r - shellR0[si];
+            s += shellAmp[si] * MATH.gauss(dr * dr * shellInvSig2[si]);
+        }
+        return pool.damp[f] * s;
+    }
+
+    /**
+     * フレーム内で不変な水滴ごとの値 (リング半径、1/sigma^2、envelope とゲインの積) を先に計算する。
+     * あわせて各シェルの有意範囲 (r0 ± cutoff*sigma) を合わせた円環を ringInner/ringOuter に入れる。
+     * 戻り値は frameSlots に詰めた生存水滴の数。
+     */
+    int prepareFrame() {
+        final Profile pf = profiles[profileIdx];
+        return prepareShells(pf.speed, pf.sigma);
+    }
+
+    private int prepareShells(float v, float sigma) {
+        final DropPool p = pool;
+        if (frameSlots.length < p.capacity) growDropArrays(p.capacity);
+        final boolean hamon = mode == MODE_HAMON;
+        int nDrops = 0;
+        for (int i = 0; i < p.count; i++) {
+            final int slot = p.order[i];
+            prepareDrop(nDrops, p.age[slot], p.weight[slot], p.sigmaScale[slot], p.speedScale[slot], p.dampingScale[slot], v, sigma, hamon);
+            frameSlots[nDrops++] = slot;
+        }
+        return nDrops;
+    }
+
+    private void growDropArrays(int n) {
+        frameSlots = new int[n];
+        shellCount = new int[n];
+        shellR0 = new float[n * MAX_SHELLS];
+        shellInvSig2 = new float[n * MAX_SHELLS];
+        shellAmp = new float[n * MAX_SHELLS];
+        ringInner = new float[n];
+        ringOuter = new float[n];
+        visibility = new float[n];
+    }
+
+    /** di 番目のシェル・円環を 1 滴分作る。 */
+    private void prepareDrop(int di, float age, float weight, float sigmaScale, float speedScale, float dampingScale,
+                             float v, float sigma, boolean hamon) {
+        int base = di * MAX_SHELLS;
+        float r0 = v * speedScale * age;
+        float sig0 = sigma * sigmaScale;
+        shellR0[base] = r0;
+        shellInvSig2[base] = 1f / (sig0 * sig0);
+        shellAmp[base] = MATH.envelope(age / dampingScale) * weight;
+        float inner = r0 - MATH.gaussCutoff * sig0;
+        float outer = r0 + MATH.gaussCutoff * sig0;
+        int count = 1;
+        if (hamon) {
+            for (int k = 1; k <= TRAILS; k++) {
+                float rk = r0 - k * TRAIL_DELTA;
+                if (rk < 0f) break;
+                float sigmak = (sigma * (1.0f + 0.25f * k)) * sigmaScale;
+                float envk = MATH.envelope(Math.max(0f, (age - 2.0f * k)) / dampingScale);
+                shellR0[base + count] = rk;
+                shellInvSig2[base + count] = 1f / (sigmak * sigmak);
+                shellAmp[base + count] = RippleMath.TRAIL_GAIN[k] * weight * envk;
+                inner = Math.min(inner, rk - MATH.gaussCutoff * sigmak);
+                outer = Math.max(outer, rk + MATH.gaussCutoff * sigmak);
+                count++;
+            }
+        }
+        shellCount[di] = count;
+        ringInner[di] = Math.max(0f, inner);
+        ringOuter[di] = outer;
+    }
+}
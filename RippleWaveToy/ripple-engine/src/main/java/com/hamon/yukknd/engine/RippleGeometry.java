@@ -0,0 +1,85 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * 25x25 マトリックスの静的ジオメトリキャッシュ。
+ * 中心・半径は定数なので、円マスクと描画対象ピクセルの一覧はクラス初期化時に一度だけ計算する。
+ */
+public final class RippleGeometry {
+    public static final int W = 25;
+    public static final int H = 25;
+    public static final float CX = (W - 1) * 0.5f;
+    public static final float CY = (H - 1) * 0.5f;
+    public static final float RADIUS = 12.4f;
+    public static final float MASK_OUTER = RADIUS + 1.2f;
+    public static final float MASK_INNER = RADIUS - 0.2f;
+
+    /** 全 W*H ピクセルの円マスク値 (円外は 0)。 */
+    public static final float[] MASK = new float[W * H];
+    /** マスク値が 0 より大きいピクセルのフレームインデックス。 */
+    public static final int[] ACTIVE;
+    /** ACTIVE[n] に対応する x / y 座標とマスク値。 */
+    public static final float[] ACTIVE_X;
+    public static final float[] ACTIVE_Y;
+    public static final float[] ACTIVE_MASK;
+    /**
+     * 行ごとのアクティブ範囲。円マスクなので各行のアクティブピクセルは連続しており、
+     * 行 j の x は ROW_MIN_X[j]..ROW_MAX_X[j]、その先頭の ACTIVE 番号が ROW_START[j]。空行は MIN > MAX。
+     */
+    public static final int[] ROW_START = new int[H];
+    public static final int[] ROW_MIN_X = new int[H];
+    public static final int[] ROW_MAX_X = new int[H];
+
+    static {
+        int count = 0;
+        int idx = 0;
+        for (int j = 0; j < H; j++) {
+            for (int i = 0; i < W; i++, idx++) {
+                float dx = i - CX;
+                float dy = j - CY;
+                float r = (float)Math.sqrt(dx*dx + dy*dy);
+                float m = r > MASK_OUTER ? 0f : smoothstep(MASK_OUTER, MASK_INNER, r);
+                MASK[idx] = m;
+                if (m > 0f) count++;
+            }
+        }
+        ACTIVE = new int[count];
+        ACTIVE_X = new float[count];
+        ACTIVE_Y = new float[count];
+        ACTIVE_MASK = new float[count];
+        int n = 0;
+        for (int j = 0; j < H; j++) {
+            ROW_START[j] = n;
+            ROW_MIN_X[j] = W;
+            ROW_MAX_X[j] = -1;
+            for (int i = 0; i < W; i++) {
+                idx = j * W + i;
+                if (MASK[idx] <= 0f) continue;
+                if (ROW_MIN_X[j] > i) ROW_MIN_X[j] = i;
+                ROW_MAX_X[j] = i;
+                ACTIVE[n] = idx;
+                ACTIVE_X[n] = i;
+                ACTIVE_Y[n] = j;
+                ACTIVE_MASK[n] = MASK[idx];
+                n++;
+            }
+        }
+    }
+
+    private RippleGeometry() {}
+
+    /** (x, y) から各アクティブピクセルまでの距離場を out に書き込む。水滴の生成時に一度だけ呼ぶ。 */
+    public static void distanceField(float x, float y, float[] out) { distanceField(x, y, out, 0); }
+    public static void distanceField(float x, float y, float[] out, int offset) {
+        for (int n = 0; n < ACTIVE.length; n++) {
+            float rx = ACTIVE_X[n] - x;
+            float ry = ACTIVE_Y[n] - y;
+            out[offset + n] = (float)Math.sqrt(rx*rx + ry*ry);
+        }
+    }
+
+    public static float smoothstep(float edge0, float edge1, float x) {
+        float t = clamp01((x - edge0) / (edge1 - edge0));
+        return t * t * (3f - 2f * t);
+    }
+    public static float clamp01(float v) { return v < 0f ? 0f : (v > 1f ? 1f : v); }
+}
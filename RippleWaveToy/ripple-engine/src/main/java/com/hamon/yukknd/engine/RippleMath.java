@@ -0,0 +1,80 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * 波紋計算用の超越関数テーブル。
+ * ガウスシェル exp(-u/2) と減衰 exp(-x) を線形補間で引く。テーブルの刻みと打ち切り位置は
+ * 許容誤差 maxError から決める (線形補間の誤差は h^2/8 * max|f''|)。
+ */
+public final class RippleMath {
+    public static final float DEFAULT_MAX_ERROR = 1e-5f;
+    public static final RippleMath DEFAULT = new RippleMath(DEFAULT_MAX_ERROR);
+
+    /** HAMON の後続リング k (0 = 先頭リング) のゲイン 0.72^k。 */
+    public static final float[] TRAIL_GAIN = new float[4];
+    static {
+        for (int k = 0; k < TRAIL_GAIN.length; k++) TRAIL_GAIN[k] = (float)Math.pow(0.72f, k);
+    }
+
+    public final float maxError;
+    /** |dr|/sigma がこれ以上なら gauss() は 0 を返す。 */
+    public final float gaussCutoff;
+    private final float[] gaussTbl;
+    private final float gaussInvStep;
+    private final float gaussLimit;
+    private final float[] expTbl;
+    private final float expInvStep;
+    private final float expLimit;
+
+    public RippleMath(float maxError) {
+        if (!(maxError > 0f && maxError < 0.5f)) throw new IllegalArgumentException("maxError=" + maxError);
+        this.maxError = maxError;
+        // 打ち切り誤差と補間誤差をそれぞれ maxError/2 以下に抑える
+        float half = maxError * 0.5f;
+        // exp(-u/2): f'' <= 1/4, exp(-uMax/2) <= half
+        double uMax = -2.0 * Math.log(half);
+        double hGauss = Math.sqrt(32.0 * half);
+        int nGauss = (int)Math.ceil(uMax / hGauss);
+        gaussTbl = new float[nGauss + 2];
+        for (int i = 0; i < gaussTbl.length; i++) gaussTbl[i] = (float)Math.exp(-0.5 * i * hGauss);
+        gaussInvStep = (float)(1.0 / hGauss);
+        gaussLimit = nGauss;
+        gaussCutoff = (float)Math.sqrt(nGauss * hGauss);
+        // exp(-x): f'' <= 1, exp(-xMax) <= half
+        double xMax = -Math.log(half);
+        double hExp = Math.sqrt(8.0 * half);
+        int nExp = (int)Math.ceil(xMax / hExp);
+        expTbl = new float[nExp + 2];
+        for (int i = 0; i < expTbl.length; i++) expTbl[i] = (float)Math.exp(-i * hExp);
+        expInvStep = (float)(1.0 / hExp);
+        expLimit = nExp;
+    }
+
+    /** exp(-u/2)。u は (dr/sigma)^2 を想定 (u >= 0)。 */
+    public float gauss(float u) {
+        float p = u * gaussInvStep;
+        if (!(p < gaussLimit)) return 0f;
+        int i = (int)p;
+        float f = p - i;
+        float g0 = gaussTbl[i];
+        return g0 + (gaussTbl[i + 1] - g0) * f;
+    }
+
+    /** exp(-x) (x >= 0)。 */
+    public float expNeg(float x) {
+        float p = x * expInvStep;
+        if (!(p < expLimit)) return 0f;
+        int i = (int)p;
+        float f = p - i;
+        float e0 = expTbl[i];
+        return e0 + (expTbl[i + 1] - e0) * f;
+    }
+
+    /** 立ち上がり・減衰カーブ。1 - exp(-age/4) と exp(-0.0065 age) の積。 */
+    public float envelope(float age) {
+        float attack = 4f;
+        float fade   = 0.0065f;
+        float att = 1f - expNeg(age / attack);
+        float rel = expNeg(fade * age);
+        return att * rel;
+    }
+}
@@ -0,0 +1,73 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * スーパーサンプリング描画。TiledRenderer で factor 倍の解像度に描き、ボックスかテントのフィルタで 25x25 に縮小する。
+ * フィルタは縦横で分離でき、1 LED あたりの重みは LED 中心 (標本座標で x*factor + (factor-1)/2) からの距離で決まる。
+ * <ul>
+ *   <li>BOX: LED に入る factor x factor 個の標本の平均。</li>
+ *   <li>TENT: 半径 factor の三角形の重み。隣の LED と重なるので、細いリングの段差がさらに目立たなくなる。</li>
+ * </ul>
+ * 端で標本がはみ出す分は、残った重みの和で割り直す。
+ */
+final class Supersampler {
+    final int factor;
+    final int filter;
+    private final TiledRenderer tiled;
+    /** LED x の標本は x*factor + taps[k]、重み weights[k]。 */
+    private final int[] taps;
+    private final float[] weights;
+    private final int size;
+
+    Supersampler(int factor, int filter) {
+        this.factor = factor;
+        this.filter = filter;
+        this.size = RippleGeometry.W * factor;
+        this.tiled = new TiledRenderer(size, RippleGeometry.H * factor, null);
+        if (filter == RippleEngine.FILTER_TENT) {
+            float c = (factor - 1) * 0.5f;
+            int lo = (int)Math.floor(c - factor) + 1;
+            int hi = (int)Math.ceil(c + factor) - 1;
+            taps = new int[hi - lo + 1];
+            weights = new float[taps.length];
+            for (int k = 0; k < taps.length; k++) {
+                taps[k] = lo + k;
+                weights[k] = 1f - Math.abs(taps[k] - c) / factor;
+            }
+        } else {
+            taps = new int[factor];
+            weights = new float[factor];
+            for (int k = 0; k < factor; k++) { taps[k] = k; weights[k] = 1f; }
+        }
+    }
+
+    void render(RippleEngine engine, int[] frame) {
+        tiled.render(engine);
+        final float[] v = tiled.getValues();
+        final int stride = tiled.stride;
+        Arrays.fill(frame, 0);
+        final int[] active = RippleGeometry.ACTIVE;
+        for (int n = 0; n < active.length; n++) {
+            int x = active[n] % RippleGeometry.W;
+            int y = active[n] / RippleGeometry.W;
+            float sum = 0f;
+            float wsum = 0f;
+            for (int ky = 0; ky < taps.length; ky++) {
+                int sy = y * factor + taps[ky];
+                if (sy < 0 || sy >= size) continue;
+                float wy = weights[ky];
+                int row = sy * stride;
+                for (int kx = 0; kx < taps.length; kx++) {
+                    int sx = x * factor + taps[kx];
+                    if (sx < 0 || sx >= size) continue;
+                    float w = wy * weights[kx];
+                    sum += w * v[row + sx];
+                    wsum += w;
+                }
+            }
+            int brightness = (int)(sum / wsum * RippleEngine.MAX_BRIGHTNESS + 0.5f);
+            frame[active[n]] = brightness > RippleEngine.MAX_BRIGHTNESS ? RippleEngine.MAX_BRIGHTNESS : brightness;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RippleEngine のシーンを任意の解像度で描画するレンダラー (スーパーサンプリングや PC 上のプレビュー用)。
+ * <p>
+ * 出力ピクセル (i, j) は 25x25 マトリックス座標の ((i+0.5)*W/width - 0.5, (j+0.5)*H/height - 0.5) を標本化する。
+ * 幅・高さが 25 なら RippleEngine.render と同じ点になる。距離場は解像度ごとに変わるので、水滴の距離と減衰はピクセルごとに求める。
+ * <p>
+ * 行をバンドに分けて ForkJoinPool で並列に描く。
+ * <ul>
+ *   <li>各タスクは 1 行分の加算用スクラッチ (スレッドごと) で水滴の寄与を足し、仕上げた値を自分の行にだけ書く。</li>
+ *   <li>出力バッファの行幅はキャッシュライン (16 float) の倍数に揃えるので、隣り合うバンドが同じラインを書くことはない。</li>
+ *   <li>ピクセル数が parallelThreshold 未満なら呼び出しスレッドだけで描く。</li>
+ * </ul>
+ * render() は同時に 1 スレッドからだけ呼ぶこと。
+ */
+public final class TiledRenderer {
+    /** これ未満のピクセル数なら並列化しない (既定 128x128)。 */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 128 * 128;
+    /** 1 タスクが受け持つ最小の行数。 */
+    public static final int DEFAULT_MIN_ROWS_PER_TASK = 4;
+    private static final int FLOATS_PER_CACHE_LINE = 16;
+    private static final float GAIN = 1.10f;
+    private static final RippleMath MATH = RippleMath.DEFAULT;
+
+    public final int width;
+    public final int height;
+    /** values の行幅 (width をキャッシュライン単位に切り上げたもの)。 */
+    public final int stride;
+    private final ForkJoinPool pool;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private int minRowsPerTask = DEFAULT_MIN_ROWS_PER_TASK;
+
+    /** 出力 (0..1)。行 j は values[j*stride .. j*stride+width)。 */
+    private final float[] values;
+    /** 標本点のマトリックス座標と円マスク。 */
+    private final float[] sampleX;
+    private final float[] sampleY;
+    private final float[] mask;
+    /** 行ごとのマスク > 0 の範囲。空行は MIN > MAX。 */
+    private final int[] rowMinX;
+    private final int[] rowMaxX;
+    private final float scaleX;
+    private final float scaleY;
+    private final ThreadLocal<float[]> scratch;
+
+    // render() 中だけ有効なフレームの値 (タスクから読む)
+    private RippleEngine frameEngine;
+    private int frameDrops;
+    private float[] dropX = new float[RippleEngine.MAX_DROPS];
+    private float[] dropY = new float[RippleEngine.MAX_DROPS];
+    private float[] dropDamping = new float[RippleEngine.MAX_DROPS];
+
+    public TiledRenderer(int width, int height) { this(width, height, ForkJoinPool.commonPool()); }
+
+    public TiledRenderer(int width, int height, ForkJoinPool pool) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException(width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.stride = (width + FLOATS_PER_CACHE_LINE - 1) / FLOATS_PER_CACHE_LINE * FLOATS_PER_CACHE_LINE;
+        this.pool = pool;
+        this.values = new float[stride * height];
+        this.scaleX = (float)RippleGeometry.W / width;
+        this.scaleY = (float)RippleGeometry.H / height;
+        this.sampleX = new float[width];
+        this.sampleY = new float[height];
+        for (int i = 0; i < width; i++) sampleX[i] = (i + 0.5f) * scaleX - 0.5f;
+        for (int j = 0; j < height; j++) sampleY[j] = (j + 0.5f) * scaleY - 0.5f;
+        this.mask = new float[stride * height];
+        this.rowMinX = new int[height];
+        this.rowMaxX = new int[height];
+        for (int j = 0; j < height; j++) {
+            int min = width, max = -1;
+            for (int i = 0; i < width; i++) {
+                float dx = sampleX[i] - RippleGeometry.CX;
+                float dy = sampleY[j] - RippleGeometry.CY;
+                float r = (float)Math.sqrt(dx*dx + dy*dy);
+                float m = r > RippleGeometry.MASK_OUTER ? 0f
+                        : RippleGeometry.smoothstep(RippleGeometry.MASK_OUTER, RippleGeometry.MASK_INNER, r);
+                mask[j * stride + i] = m;
+                if (m > 0f) { min = Math.min(min, i); max = i; }
+            }
+            rowMinX[j] = min;
+            rowMaxX[j] = max;
+        }
+        final int w = width;
+        this.scratch = new ThreadLocal<float[]>() {
+            @Override protected float[] initialValue() { return new float[w]; }
+        };
+    }
+
+    public void setParallelThreshold(int pixels) { parallelThreshold = pixels; }
+    public void setMinRowsPerTask(int rows) { minRowsPerTask = Math.max(1, rows); }
+    public boolean isParallel() { return pool != null && width * height >= parallelThreshold && pool.getParallelism() > 1; }
+
+    /** 出力バッファ (0..1、行幅 stride)。次の render() で書き換わる。 */
+    public float[] getValues() { return values; }
+
+    /** engine の現在の状態を描画する。 */
+    public void render(RippleEngine engine) {
+        frameEngine = engine;
+        frameDrops = engine.prepareFrame();
+        final float damping = engine.getProfile().damping;
+        final DropPool p = engine.pool;
+        if (dropX.length < frameDrops) {
+            dropX = new float[p.capacity];
+            dropY = new float[p.capacity];
+            dropDamping = new float[p.capacity];
+        }
+        for (int di = 0; di < frameDrops; di++) {
+            int slot = engine.frameSlots[di];
+            dropX[di] = p.x[slot];
+            dropY[di] = p.y[slot];
+            dropDamping[di] = damping / p.dampingScale[slot];
+        }
+        if (isParallel()) {
+            pool.invoke(new RowBand(0, height));
+        } else {
+            renderRows(0, height);
+        }
+        frameEngine = null;
+    }
+
+    /** 出力を 0..2040 の輝度に変換して out (長さ width*height) に入れる。 */
+    public void toBrightness(int[] out) {
+        for (int j = 0; j < height; j++) {
+            int src = j * stride;
+            int dst = j * width;
+            for (int i = 0; i < width; i++) out[dst + i] = (int)(values[src + i] * RippleEngine.MAX_BRIGHTNESS + 0.5f);
+        }
+    }
+
+    private final class RowBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        RowBand(int from, int to) { this.from = from; this.to = to; }
+
+        @Override protected void compute() {
+            int rows = to - from;
+            if (rows <= minRowsPerTask * 2) {
+                renderRows(from, to);
+                return;
+            }
+            int mid = from + rows / 2;
+            invokeAll(new RowBand(from, mid), new RowBand(mid, to));
+        }
+    }
+
+    private void renderRows(int from, int to) {
+        final float[] acc = scratch.get();
+        for (int j = from; j < to; j++) renderRow(j, acc);
+    }
+
+    /** 行 j を描く。acc は呼び出しスレッドのスクラッチ (長さ width)。 */
+    private void renderRow(int j, float[] acc) {
+        final int base = j * stride;
+        final int rowMin = rowMinX[j];
+        final int rowMax = rowMaxX[j];
+        if (rowMin > rowMax) {
+            Arrays.fill(values, base, base + width, 0f);
+            return;
+        }
+        Arrays.fill(acc, rowMin, rowMax + 1, 0f);
+        final RippleEngine e = frameEngine;
+        final float y = sampleY[j];
+        for (int di = 0; di < frameDrops; di++) {
+            final float dx0 = dropX[di];
+            final float dy = y - dropY[di];
+            final float dy2 = dy * dy;
+            final float outer = e.ringOuter[di];
+            final float outer2 = outer * outer;
+            if (dy2 > outer2) continue;
+            final float inner = e.ringInner[di];
+            final float inner2 = inner * inner;
+            // 標本点の x が円環に入る範囲をピクセル番号に直す (x = (i+0.5)*scaleX - 0.5)
+            float half = (float)Math.sqrt(outer2 - dy2);
+            int lo = Math.max(rowMin, (int)Math.ceil((dx0 - half + 0.5f) / scaleX - 0.5f));
+            int hi = Math.min(rowMax, (int)Math.floor((dx0 + half + 0.5f) / scaleX - 0.5f));
+            if (lo > hi) continue;
+            if (dy2 < inner2) {
+                float hole = (float)Math.sqrt(inner2 - dy2);
+                int leftEnd = Math.min(hi, (int)Math.floor((dx0 - hole + 0.5f) / scaleX - 0.5f));
+                int rightStart = Math.max(lo, (int)Math.ceil((dx0 + hole + 0.5f) / scaleX - 0.5f));
+                shadeSpan(e, di, dy2, lo, leftEnd, acc);
+                shadeSpan(e, di, dy2, rightStart, hi, acc);
+            } else {
+                shadeSpan(e, di, dy2, lo, hi, acc);
+            }
+        }
+        Arrays.fill(values, base, base + rowMin, 0f);
+        for (int i = rowMin; i <= rowMax; i++) {
+            float v = GAIN * acc[i] * mask[base + i];
+            values[base + i] = v < 0f ? 0f : (v > 1f ? 1f : v);
+        }
+        Arrays.fill(values, base + rowMax + 1, base + width, 0f);
+    }
+
+    private void shadeSpan(RippleEngine e, int di, float dy2, int lo, int hi, float[] acc) {
+        final float dx0 = dropX[di];
+        final float a = dropDamping[di];
+        final int s0 = di * RippleEngine.MAX_SHELLS;
+        final int s1 = s0 + e.shellCount[di];
+        for (int i = lo; i <= hi; i++) {
+            float dx = sampleX[i] - dx0;
+            float r = (float)Math.sqrt(dx * dx + dy2);
+            float s = 0f;
+            for (int si = s0; si < s1; si++) {
+                float dr = r - e.shellR0[si];
+                s += e.shellAmp[si] * MATH.gauss(dr * dr * e.shellInvSig2[si]);
+            }
+            acc[i] += MATH.expNeg(a * r) * s;
+        }
+    }
+}
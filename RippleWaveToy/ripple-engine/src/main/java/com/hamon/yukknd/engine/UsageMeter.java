@@ -0,0 +1,39 @@
+package com.hamon.yukknd.engine;
+
+/**
+ * ある区間 (AOD 中、通常表示中など) の描画回数と CPU 時間を 1 分あたりに直す。
+ * CPU 時間の出どころ (プロセスかスレッドか) は呼び出し側が決める。確保はしない。
+ */
+public final class UsageMeter {
+    private long startNanos;
+    private long startCpuMs;
+    private long startRenders;
+
+    /** 区間を始める。 */
+    public void start(long nowNanos, long cpuMs, long renders) {
+        startNanos = nowNanos;
+        startCpuMs = cpuMs;
+        startRenders = renders;
+    }
+
+    public float getMinutes(long nowNanos) { return (nowNanos - startNanos) / 60e9f; }
+
+    public float getRendersPerMinute(long nowNanos, long renders) { return perMinute(nowNanos, renders - startRenders); }
+
+    public float getCpuMsPerMinute(long nowNanos, long cpuMs) { return perMinute(nowNanos, cpuMs - startCpuMs); }
+
+    /** "renders/min=.. cpuMs/min=.. over ..min" の 1 行。 */
+    public StringBuilder appendSummary(StringBuilder sb, long nowNanos, long cpuMs, long renders) {
+        sb.append("renders/min=").append(round1(getRendersPerMinute(nowNanos, renders)))
+          .append(" cpuMs/min=").append(round1(getCpuMsPerMinute(nowNanos, cpuMs)))
+          .append(" over ").append(round1(getMinutes(nowNanos))).append("min");
+        return sb;
+    }
+
+    private float perMinute(long nowNanos, long count) {
+        float minutes = getMinutes(nowNanos);
+        return minutes > 0f ? count / minutes : 0f;
+    }
+
+    private static float round1(float v) { return Math.round(v * 10f) / 10f; }
+}
@@ -0,0 +1,157 @@
+package com.hamon.yukknd.engine;
+
+import java.util.Arrays;
+
+/**
+ * WAVE モード用の減衰付き 2 次元波動方程式 (25x25 の格子、陽解法)。
+ * <p>
+ * 水面の高さを 2 枚の float 配列 (今と 1 ステップ前) で持ち、毎ステップ新しい高さを 1 ステップ前の配列に書いて入れ替える。
+ * 水滴は高さに小さなガウスの山を足すだけ (インパルス) なので、1 フレームのコストは水滴の数によらず一定。
+ * <ul>
+ *   <li>計算するのはアクティブピクセル (円マスクの内側) だけで、外側は常に 0 (固定端)。</li>
+ *   <li>RIM_REFLECT: 縁で波が跳ね返る。RIM_ABSORB: 縁の手前 SPONGE_WIDTH px で減衰を強めて波を吸い込む。</li>
+ *   <li>1 ステップ = 基準フレーム 1 つ。波の速さ c (px / ステップ) はプロファイルの speed に合わせる (安定条件 c &lt; 1/√2)。</li>
+ *   <li>最大の |高さ| が QUIET を下回ったら 0 に戻して止まる (isActive() が false になり、step も描画も何もしない)。</li>
+ * </ul>
+ * 端の折り返しを避けるため、格子の周りに 1 マスずつ 0 の枠を付けて持つ。
+ */
+final class WaveField {
+    /** 縁の吸収層の幅 (px)。 */
+    static final float SPONGE_WIDTH = 3f;
+    /** 吸収層のいちばん外側で 1 ステップに失う速度の割合。 */
+    private static final float SPONGE_DAMPING = 0.3f;
+    /** 水面全体で 1 ステップに失う速度の割合。 */
+    private static final float DAMPING = 0.02f;
+    /** 高さを accum に足すときの倍率 (正の側だけ)。 */
+    private static final float GAIN = 3f;
+    /** これより小さい揺れは見えないので止める (出力のゲイン 1.1 を掛けても輝度 1 段階の半分未満)。 */
+    private static final float QUIET = 0.4f / (GAIN * RippleEngine.MAX_BRIGHTNESS);
+    /** 何ステップもまとめて進めるとき、これより先は揺れが残らないので 0 にする。 */
+    private static final int MAX_STEPS = (int)RippleEngine.MAX_AGE_FRAMES;
+
+    private static final int PW = RippleGeometry.W + 2;
+    private static final int PH = RippleGeometry.H + 2;
+
+    /** アクティブピクセル n の格子上の位置 (枠付き)。 */
+    private final int[] cells = new int[RippleGeometry.ACTIVE.length];
+    /** 中心からの距離 (吸収層の減衰を決める)。 */
+    private final float[] radius = new float[RippleGeometry.ACTIVE.length];
+    /** 1 ステップで残る速度の割合 (1 - 減衰)。 */
+    private final float[] keep = new float[RippleGeometry.ACTIVE.length];
+    private float[] cur = new float[PW * PH];
+    private float[] prev = new float[PW * PH];
+    private int rim = RippleEngine.RIM_REFLECT;
+    private float c2;
+    private float pending;
+    private boolean active;
+    private int impulses;
+
+    WaveField() {
+        RippleGeometry.distanceField(RippleGeometry.CX, RippleGeometry.CY, radius);
+        for (int n = 0; n < cells.length; n++) {
+            int x = (int)RippleGeometry.ACTIVE_X[n];
+            int y = (int)RippleGeometry.ACTIVE_Y[n];
+            cells[n] = (y + 1) * PW + (x + 1);
+        }
+        setRim(rim);
+    }
+
+    int getRim() { return rim; }
+
+    void setRim(int rim) {
+        this.rim = rim;
+        final float inner = RippleGeometry.RADIUS - SPONGE_WIDTH;
+        for (int n = 0; n < keep.length; n++) {
+            float d = DAMPING;
+            if (rim == RippleEngine.RIM_ABSORB && radius[n] > inner) {
+                float u = Math.min(1f, (radius[n] - inner) / SPONGE_WIDTH);
+                d += (SPONGE_DAMPING - DAMPING) * u * u;
+            }
+            keep[n] = 1f - d;
+        }
+    }
+
+    /** 波の速さ (px / 基準フレーム)。 */
+    void setSpeed(float speed) {
+        float c = Math.min(speed, 0.7f);
+        c2 = c * c;
+    }
+
+    float getSpeed() { return (float)Math.sqrt(c2); }
+
+    boolean isActive() { return active; }
+
+    /** 最後に静かになってから落ちた水滴の数。 */
+    int getImpulses() { return impulses; }
+
+    void clear() {
+        Arrays.fill(cur, 0f);
+        Arrays.fill(prev, 0f);
+        pending = 0f;
+        active = false;
+        impulses = 0;
+    }
+
+    /** (x, y) に高さ amp・幅 sigma のガウスの山を足す (初速 0)。 */
+    void impulse(float x, float y, float amp, float sigma) {
+        final float reach = 3f * sigma;
+        final float inv2s2 = 1f / (2f * sigma * sigma);
+        final int j0 = Math.max(0, (int)Math.ceil(y - reach));
+        final int j1 = Math.min(RippleGeometry.H - 1, (int)Math.floor(y + reach));
+        for (int j = j0; j <= j1; j++) {
+            int rowMin = RippleGeometry.ROW_MIN_X[j];
+            int rowMax = RippleGeometry.ROW_MAX_X[j];
+            int i0 = Math.max(rowMin, (int)Math.ceil(x - reach));
+            int i1 = Math.min(rowMax, (int)Math.floor(x + reach));
+            float dy = j - y;
+            for (int i = i0; i <= i1; i++) {
+                float dx = i - x;
+                float h = amp * (float)Math.exp(-(dx * dx + dy * dy) * inv2s2);
+                int p = (j + 1) * PW + (i + 1);
+                cur[p] += h;
+                prev[p] += h;
+            }
+        }
+        active = true;
+        impulses++;
+    }
+
+    /** dt 基準フレーム進める。端数は次に持ち越す。 */
+    void step(float dt) {
+        if (!active) return;
+        pending += dt;
+        int steps = (int)pending;
+        pending -= steps;
+        if (steps > MAX_STEPS) { clear(); return; }
+        for (int k = 0; k < steps && active; k++) stepOnce();
+    }
+
+    private void stepOnce() {
+        final float[] h = cur;
+        final float[] out = prev;
+        final float c2 = this.c2;
+        float peak = 0f;
+        for (int n = 0; n < cells.length; n++) {
+            final int p = cells[n];
+            final float hp = h[p];
+            final float lap = h[p - 1] + h[p + 1] + h[p - PW] + h[p + PW] - 4f * hp;
+            final float next = hp + keep[n] * (hp - out[p]) + c2 * lap;
+            out[p] = next;
+            final float a = Math.abs(next);
+            if (a > peak) peak = a;
+        }
+        prev = h;
+        cur = out;
+        if (peak < QUIET) clear();
+    }
+
+    /** 正の高さを accum (アクティブピクセル順) に足す。 */
+    void accumulate(float[] accum) {
+        if (!active) return;
+        final float[] h = cur;
+        for (int n = 0; n < cells.length; n++) {
+            final float v = h[cells[n]];
+            if (v > 0f) accum[n] += GAIN * v;
+        }
+    }
+}
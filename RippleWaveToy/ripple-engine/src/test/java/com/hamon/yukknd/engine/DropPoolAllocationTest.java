@@ -0,0 +1,78 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ウォームアップ後は spawn・step・render が 1 バイトも確保しないことを、このスレッドの確保量
+ * (com.sun.management.ThreadMXBean#getThreadAllocatedBytes) で確かめる。
+ */
+public class DropPoolAllocationTest {
+    private static final int WARM_UP_FRAMES = 20_000;
+    private static final int FRAMES = 2_000;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    @Before
+    public void setUp() {
+        final java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        assumeTrue(mx instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean)mx;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void zenDoesNotAllocate() {
+        assertNoAllocation(RippleEngine.MODE_ZEN, 60);
+    }
+
+    @Test
+    public void hamonDoesNotAllocate() {
+        assertNoAllocation(RippleEngine.MODE_HAMON, 60);
+    }
+
+    @Test
+    public void rainDoesNotAllocate() {
+        assertNoAllocation(RippleEngine.MODE_RAIN, 4);
+    }
+
+    @Test
+    public void fixedPointRainDoesNotAllocate() {
+        final RippleEngine engine = new RippleEngine(new Random(1L), 64);
+        engine.setFixedPointRender(true);
+        assertNoAllocation(engine, RippleEngine.MODE_RAIN, 4);
+    }
+
+    private void assertNoAllocation(int mode, int spawnEvery) {
+        assertNoAllocation(new RippleEngine(new Random(1L), 64), mode, spawnEvery);
+    }
+
+    /** spawnEvery フレームごとに spawnTick しながら描く。プールが広がりきるまでウォームアップしてから測る。 */
+    private void assertNoAllocation(RippleEngine engine, int mode, int spawnEvery) {
+        final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+        engine.setMode(mode);
+        run(engine, frame, WARM_UP_FRAMES, spawnEvery);
+        final long id = Thread.currentThread().getId();
+        // 計測そのものの確保量を差し引く
+        final long b0 = threads.getThreadAllocatedBytes(id);
+        final long b1 = threads.getThreadAllocatedBytes(id);
+        run(engine, frame, FRAMES, spawnEvery);
+        final long b2 = threads.getThreadAllocatedBytes(id);
+        assertEquals("bytes allocated in " + FRAMES + " frames", 0L, (b2 - b1) - (b1 - b0));
+    }
+
+    private static void run(RippleEngine engine, int[] frame, int frames, int spawnEvery) {
+        for (int k = 0; k < frames; k++) {
+            if (k % spawnEvery == 0) engine.spawnTick();
+            engine.step();
+            engine.render(frame);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * 固定小数点パスが float パスから各 LED で ±1 以内に収まることを、決まったシーンの一覧で確かめる。
+ * 同じシードの 2 つの RippleEngine に同じ操作をして、毎フレーム比べる。
+ */
+public class FixedPointRenderTest {
+    private static final int FRAMES = 600;
+
+    /** フレーム frame の先頭で engine に加える操作。 */
+    private interface Script {
+        void apply(RippleEngine engine, int frame);
+    }
+
+    private static final class Scene {
+        final String name;
+        final int mode;
+        final float dt;
+        final Script script;
+        Scene(String name, int mode, float dt, Script script) {
+            this.name = name; this.mode = mode; this.dt = dt; this.script = script;
+        }
+    }
+
+    private static final Scene[] CORPUS = {
+            new Scene("zen-centre", RippleEngine.MODE_ZEN, 1f, (e, f) -> {
+                if (f % 250 == 0) e.spawnTick();
+            }),
+            new Scene("zen-offcentre", RippleEngine.MODE_ZEN, 1f, (e, f) -> {
+                if (f == 0) e.addDrop(5.5f, 18.25f, 1.3f, 0.8f, 1.1f, 0.9f);
+                if (f == 40) e.addDrop(19f, 6.75f, 0.7f, 1.35f, 0.85f, 1.2f);
+                if (f == 90) e.addDrop(RippleEngine.CX, RippleEngine.CY);
+            }),
+            new Scene("hamon-overlap", RippleEngine.MODE_HAMON, 1f, (e, f) -> {
+                if (f % 30 == 0 && f < 240) e.addDrop(10f + (f / 30) % 3, 12f - (f / 30) % 2, 1.2f, 1.1f, 1f, 1f);
+            }),
+            new Scene("rain-storm", RippleEngine.MODE_RAIN, 1f, (e, f) -> {
+                if (f % 4 == 0) e.spawnTick();
+                if (f % 150 == 75) e.spawnRainBurst(5);
+            }),
+            new Scene("hamon-half-steps", RippleEngine.MODE_HAMON, 0.5f, (e, f) -> {
+                if (f % 120 == 0) e.spawnTick();
+                if (f % 120 == 60) e.addDrop(8.3f, 15.6f, 1f, 1.2f, 1.15f, 0.95f);
+            }),
+    };
+
+    @Test
+    public void fixedPointPathWithinOneLevelOfFloat() {
+        for (Scene scene : CORPUS) assertWithinOneLevel(scene);
+    }
+
+    private static void assertWithinOneLevel(Scene scene) {
+        final RippleEngine floatEngine = new RippleEngine(new Random(7L));
+        final RippleEngine fixedEngine = new RippleEngine(new Random(7L));
+        fixedEngine.setFixedPointRender(true);
+        floatEngine.setMode(scene.mode);
+        fixedEngine.setMode(scene.mode);
+        final int[] expected = new int[RippleEngine.W * RippleEngine.H];
+        final int[] actual = new int[expected.length];
+        for (int f = 0; f < FRAMES; f++) {
+            scene.script.apply(floatEngine, f);
+            scene.script.apply(fixedEngine, f);
+            floatEngine.step(scene.dt);
+            fixedEngine.step(scene.dt);
+            floatEngine.render(expected);
+            fixedEngine.render(actual);
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(scene.name + " frame " + f + " pixel " + i + ": " + actual[i] + " vs " + expected[i],
+                        Math.abs(actual[i] - expected[i]) <= 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** FrameDiffer の送る / まとめる / 送らないの判定を、SDK の代わりに MemoryFramePresenter で確かめる。 */
+public class FrameDifferTest {
+    private static final int N = RippleEngine.W * RippleEngine.H;
+
+    private final MemoryFramePresenter presenter = new MemoryFramePresenter();
+
+    @Test
+    public void identicalFramesAreSkipped() {
+        final FrameDiffer differ = new FrameDiffer(N);
+        final int[] frame = frame(100, 500);
+        assertTrue(differ.submit(frame, presenter));
+        for (int k = 0; k < 10; k++) assertTrue(differ.submit(frame.clone(), presenter));
+        assertEquals(1L, presenter.getFramesPresented());
+        assertEquals(1L, differ.getFramesSent());
+        assertEquals(10L, differ.getFramesSkipped());
+        assertEquals(10L * N * 4, differ.getBytesSaved());
+    }
+
+    @Test
+    public void changedFrameIsPresentedExactlyOnce() {
+        final FrameDiffer differ = new FrameDiffer(N, FrameDiffer.DEFAULT_THRESHOLD, 0, 0);
+        final int[] a = frame(100, 500);
+        final int[] b = frame(100, 1500);
+        differ.submit(a, presenter);
+        assertTrue(differ.submit(b, presenter));
+        assertTrue(differ.submit(b, presenter));
+        assertEquals(2L, presenter.getFramesPresented());
+        assertArrayEquals(b, presenter.getLastFrame());
+        assertEquals(1L, differ.getFramesSkipped());
+        assertEquals(0, differ.getLastChangedPixels());
+    }
+
+    @Test
+    public void changesBelowThresholdAreIgnoredButSwitchingOffIsNot() {
+        final FrameDiffer differ = new FrameDiffer(N, FrameDiffer.DEFAULT_THRESHOLD, 0, 0);
+        differ.submit(frame(100, 5), presenter);
+        // 閾値 (8) 未満の変化は送らない
+        assertEquals(FrameDiffer.SKIP, differ.diff(frame(100, 5 + FrameDiffer.DEFAULT_THRESHOLD - 1)));
+        // 消灯は小さな変化でも送る
+        assertEquals(FrameDiffer.SEND, differ.diff(frame(100, 0)));
+        assertEquals(1, differ.getLastChangedPixels());
+    }
+
+    @Test
+    public void smallChangesAreCoalescedThenSent() {
+        final FrameDiffer differ = new FrameDiffer(N, 8, 24, 2);
+        differ.submit(frame(100, 500), presenter);
+        assertFalse(differ.submit(frame(100, 510), presenter));
+        assertFalse(differ.submit(frame(100, 520), presenter));
+        // まとめられるのは 2 フレームまで。3 フレーム目で見送った分も含めて送る
+        assertTrue(differ.submit(frame(100, 530), presenter));
+        assertEquals(2L, presenter.getFramesPresented());
+        assertEquals(2L, differ.getFramesCoalesced());
+        assertEquals(530, presenter.getLastFrame()[100]);
+    }
+
+    @Test
+    public void failedPresentIsRetriedOnNextFrame() {
+        final FrameDiffer differ = new FrameDiffer(N);
+        presenter.setAccept(false);
+        assertFalse(differ.submit(frame(100, 500), presenter));
+        assertEquals(1L, differ.getFramesFailed());
+        presenter.setAccept(true);
+        assertTrue(differ.submit(frame(100, 500), presenter));
+        assertEquals(1L, presenter.getFramesPresented());
+    }
+
+    /** ピクセル pixel だけが value のフレーム。 */
+    private static int[] frame(int pixel, int value) {
+        final int[] f = new int[N];
+        f[pixel] = value;
+        return f;
+    }
+}
@@ -0,0 +1,110 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** FrameRateGovernor の stride の上げ下げ (上げるのは即座に、下げるのは 1 秒の窓の終わりに) を確かめる。 */
+public class FrameRateGovernorTest {
+    private static final int WINDOW = (int)RippleEngine.FPS;
+
+    @Test
+    public void strideRangeFollowsFpsLimits() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        assertEquals(1, g.getStride());
+        idleWindow(g);
+        assertEquals(5, g.getStride());
+        assertEquals(5f, g.getFps(), 1e-6f);
+
+        final FrameRateGovernor half = new FrameRateGovernor(6f, 12.5f);
+        assertEquals(2, half.getStride());
+        idleWindow(half);
+        assertEquals(4, half.getStride());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMinAboveMax() {
+        new FrameRateGovernor(20f, 10f);
+    }
+
+    @Test
+    public void lowersRateOnlyAtEndOfWindow() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        for (int k = 0; k < WINDOW - 1; k++) assertFalse(g.update(1, 0, 0f, 0));
+        assertEquals(1, g.getStride());
+        assertTrue(g.update(1, 0, 0f, 0));
+        assertEquals(5, g.getStride());
+        assertEquals(1L, g.getStrideChanges());
+    }
+
+    @Test
+    public void oneBusyFrameKeepsRateForWholeWindow() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        g.update(1, FrameRateGovernor.DEFAULT_BUSY_DROPS, 0f, 0);
+        for (int k = 1; k < WINDOW; k++) g.update(1, 0, 0f, 0);
+        assertEquals(1, g.getStride());
+        // 次の窓が静かなら下げる
+        idleWindow(g);
+        assertEquals(5, g.getStride());
+    }
+
+    @Test
+    public void raisesRateImmediately() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        idleWindow(g);
+        assertEquals(5, g.getStride());
+        assertTrue(g.update(5, FrameRateGovernor.DEFAULT_BUSY_DROPS, 0f, 0));
+        assertEquals(1, g.getStride());
+    }
+
+    @Test
+    public void brightnessChangeIsMeasuredPerBaseFrame() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        idleWindow(g);
+        // stride 5 で 5 倍の変化は基準 1 フレームあたり busyDelta 未満
+        assertFalse(g.update(5, 1, 0f, 5 * (FrameRateGovernor.DEFAULT_BUSY_DELTA - 1)));
+        assertEquals(5, g.getStride());
+        assertTrue(g.update(5, 1, 0f, 5 * FrameRateGovernor.DEFAULT_BUSY_DELTA));
+        assertEquals(1, g.getStride());
+    }
+
+    @Test
+    public void ringSpeedLimitsStepPerFrame() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        // 0.2 px/フレームなら 0.5px 以下に収まるのは stride 2 まで
+        for (int k = 0; k < WINDOW; k++) g.update(1, 1, 0.2f, 0);
+        assertEquals(2, g.getStride());
+        // 速いリングが現れたらすぐ戻す
+        assertTrue(g.update(2, 1, 0.6f, 0));
+        assertEquals(1, g.getStride());
+    }
+
+    @Test
+    public void windowCountsBaseFrames() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        for (int k = 0; k < WINDOW; k++) g.update(1, 1, 0.2f, 0);
+        assertEquals(2, g.getStride());
+        // stride 2 では 13 フレーム (26 基準フレーム) で 1 秒の窓が終わる
+        for (int k = 0; k < 12; k++) assertFalse(g.update(2, 0, 0f, 0));
+        assertTrue(g.update(2, 0, 0f, 0));
+        assertEquals(5, g.getStride());
+    }
+
+    @Test
+    public void resetReturnsToMaxRate() {
+        final FrameRateGovernor g = new FrameRateGovernor(5f, 25f);
+        idleWindow(g);
+        assertTrue(g.reset());
+        assertEquals(1, g.getStride());
+        assertFalse(g.reset());
+        // reset で窓も始めからになる
+        for (int k = 0; k < WINDOW - 1; k++) g.update(1, 0, 0f, 0);
+        assertEquals(1, g.getStride());
+    }
+
+    private static void idleWindow(FrameRateGovernor g) {
+        for (int ticks = 0; ticks < WINDOW; ticks += g.getStride()) g.update(g.getStride(), 0, 0f, 0);
+    }
+}
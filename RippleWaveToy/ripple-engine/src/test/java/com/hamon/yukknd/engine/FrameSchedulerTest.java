@@ -0,0 +1,76 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/** FrameScheduler のアイドルと wake() の受け渡しを確かめる。 */
+public class FrameSchedulerTest {
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /** フレームの中で requestIdle() し、呼ばれた回数を数える。 */
+    private static final class IdleEveryFrame implements FrameScheduler.FrameCallback {
+        volatile FrameScheduler scheduler;
+        volatile Runnable duringFirstFrame;
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch second = new CountDownLatch(2);
+        @Override public void onFrame(int ticks) {
+            if (first.getCount() > 0 && duringFirstFrame != null) duringFirstFrame.run();
+            scheduler.requestIdle();
+            first.countDown();
+            second.countDown();
+        }
+    }
+
+    private static FrameScheduler start(IdleEveryFrame callback) {
+        final FrameScheduler scheduler = new FrameScheduler("test-frames", PERIOD_NANOS, callback);
+        callback.scheduler = scheduler;
+        scheduler.start();
+        return scheduler;
+    }
+
+    /** framesRun が n になるまで待ち、そのあと数周期ぶん余計なフレームが回らないことを見る。 */
+    private static void assertSettlesAt(FrameScheduler scheduler, long n) throws InterruptedException {
+        for (int i = 0; i < 1000 && scheduler.getFramesRun() < n; i++) Thread.sleep(1);
+        Thread.sleep(20);
+        assertEquals(n, scheduler.getFramesRun());
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void wakeDuringFrameRunsOneMoreFrame() throws Exception {
+        // 描画中 (まだ requestIdle() の前) に別スレッドから wake() されても、アイドルに入らずもう 1 フレーム回る
+        final IdleEveryFrame callback = new IdleEveryFrame();
+        callback.duringFirstFrame = () -> {
+            final Thread waker = new Thread(() -> callback.scheduler.wake());
+            waker.start();
+            try { waker.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        };
+        final FrameScheduler scheduler = start(callback);
+        try {
+            assertTrue(callback.second.await(2, TimeUnit.SECONDS));
+            assertSettlesAt(scheduler, 2);
+        } finally {
+            scheduler.stop(1000);
+        }
+    }
+
+    @Test
+    public void idleSchedulerRunsOneFramePerWake() throws Exception {
+        final IdleEveryFrame callback = new IdleEveryFrame();
+        final FrameScheduler scheduler = start(callback);
+        try {
+            assertTrue(callback.first.await(2, TimeUnit.SECONDS));
+            assertSettlesAt(scheduler, 1);
+            scheduler.wake();
+            assertTrue(callback.second.await(2, TimeUnit.SECONDS));
+            assertSettlesAt(scheduler, 2);
+        } finally {
+            scheduler.stop(1000);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** FrameSequenceCache の再生、列が無いときのふるまい、ファイルの照合を確かめる。 */
+public class FrameSequenceCacheTest {
+    @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private static RippleEngine centreDrop(FrameSequenceCache cache) {
+        final RippleEngine engine = new RippleEngine(new Random(1L), 8);
+        engine.setFrameSequenceCache(cache);
+        engine.addDrop(RippleEngine.CX, RippleEngine.CY);
+        for (int i = 0; i < 20; i++) engine.step();
+        return engine;
+    }
+
+    @Test
+    public void missFallsBackWithoutBaking() {
+        // 列が無いフレームは描画スレッドで焼かずに通常の描画で出す
+        final FrameSequenceCache cache = new FrameSequenceCache();
+        final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+        centreDrop(cache).render(frame);
+        assertEquals(0, cache.getBakes());
+        assertEquals(0, cache.getSequences());
+        assertEquals(1, cache.getFallbacks());
+        assertEquals(0, cache.getFramesPlayed());
+
+        final int[] expected = new int[frame.length];
+        centreDrop(null).render(expected);
+        assertArrayEquals(expected, frame);
+    }
+
+    @Test
+    public void playsSequencesBakedAhead() {
+        final FrameSequenceCache cache = new FrameSequenceCache();
+        final RippleEngine engine = centreDrop(cache);
+        assertEquals(2, engine.bakeFrameSequences(cache, engine.getProfileIndex()));
+        final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+        engine.render(frame);
+        assertEquals(1, cache.getFramesPlayed());
+        assertEquals(0, cache.getFallbacks());
+
+        // 水滴 1 つなら通常の描画と完全に一致する
+        final int[] expected = new int[frame.length];
+        centreDrop(null).render(expected);
+        assertArrayEquals(expected, frame);
+    }
+
+    @Test
+    public void mapsSavedFile() throws IOException {
+        final FrameSequenceCache baked = new FrameSequenceCache();
+        new RippleEngine(new Random(1L), 8).bakeFrameSequences(baked, 0);
+        final File file = tmp.newFile("sequences.bin");
+        baked.save(file);
+
+        final FrameSequenceCache mapped = new FrameSequenceCache();
+        assertEquals(2, mapped.map(file));
+        assertEquals(0, mapped.getHeapBytes());
+        final RippleEngine engine = centreDrop(mapped);
+        engine.render(new int[RippleEngine.W * RippleEngine.H]);
+        assertEquals(1, mapped.getFramesPlayed());
+    }
+
+    @Test
+    public void rejectsFileWithAnotherRenderFingerprint() throws IOException {
+        // 描画の式や定数が変わって指紋が違うファイルは、古い列を再生しないように読まない
+        final FrameSequenceCache baked = new FrameSequenceCache();
+        new RippleEngine(new Random(1L), 8).bakeFrameSequences(baked, 0);
+        final File file = tmp.newFile("sequences.bin");
+        baked.save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            final long fingerprint = raf.readLong();
+            assertEquals(RippleEngine.renderFingerprint(), fingerprint);
+            raf.seek(8);
+            raf.writeLong(fingerprint + 1);
+        }
+
+        final FrameSequenceCache mapped = new FrameSequenceCache();
+        try {
+            mapped.map(file);
+            fail("mapped a file with another render fingerprint");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("fingerprint"));
+        }
+        assertEquals(0, mapped.getSequences());
+    }
+}
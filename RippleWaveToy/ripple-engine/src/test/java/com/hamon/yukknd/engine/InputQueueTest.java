@@ -0,0 +1,156 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/** InputQueue の順序・満杯時の扱い・1 フレーム内のシェイクのまとめとバッチの区切りを確かめる。 */
+public class InputQueueTest {
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(8, new InputQueue(5).getCapacity());
+        assertEquals(64, new InputQueue(64).getCapacity());
+        assertEquals(2, new InputQueue(2).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinyCapacity() {
+        new InputQueue(1);
+    }
+
+    @Test
+    public void fullQueueRejectsAndCountsOverflows() {
+        final InputQueue q = new InputQueue(4);
+        final int[] cmd = new int[3];
+        for (int round = 0; round < 3; round++) {
+            for (int k = 0; k < 4; k++) assertTrue(q.offer(InputQueue.DROP, round, k));
+            assertFalse(q.offerSpawnTick());
+            assertFalse(q.offerShake(3));
+            // 満杯のあとも積んだ分はそのまま順に出てくる (添字が一周しても)
+            for (int k = 0; k < 4; k++) {
+                assertTrue(q.poll(cmd));
+                assertEquals(round, cmd[1]);
+                assertEquals(k, cmd[2]);
+            }
+            assertFalse(q.poll(cmd));
+            assertTrue(q.isEmpty());
+        }
+        assertEquals(6L, q.getOverflows());
+    }
+
+    @Test
+    public void discardDropsPendingCommands() {
+        final InputQueue q = new InputQueue(8);
+        q.offerSpawnTick();
+        q.offerShake(3);
+        assertEquals(2, q.discard());
+        assertTrue(q.isEmpty());
+        assertEquals(0, q.drain(new RippleEngine(new Random(1L))));
+    }
+
+    @Test
+    public void shakesInOneFrameCoalesceAcrossModeChange() {
+        final RippleEngine engine = new RippleEngine(new Random(1L));
+        final InputQueue q = new InputQueue(16);
+        q.offerShake(3);
+        q.offerSetMode(RippleEngine.MODE_RAIN);
+        q.offerShake(3);
+        q.offerShake(3);
+        assertEquals(4, q.drain(engine));
+        assertEquals(RippleEngine.MODE_RAIN, engine.getMode());
+        assertEquals(3, engine.liveDropCount());
+        assertEquals(2L, q.getCoalescedShakes());
+        // 次のフレームのシェイクはまた 1 回バーストを出す
+        q.offerShake(2);
+        q.drain(engine);
+        assertEquals(5, engine.liveDropCount());
+        assertEquals(2L, q.getCoalescedShakes());
+        assertEquals(5L, q.getApplied());
+        assertEquals(2L, q.getBatches());
+    }
+
+    @Test
+    public void stepClosesSpawnBatch() {
+        final RippleEngine engine = new RippleEngine(new Random(1L));
+        final InputQueue q = new InputQueue(16);
+        q.offerDrop(5f, 5f);
+        q.offerStep(10);
+        q.offerDrop(6f, 6f);
+        q.drain(engine);
+        // STEP の前の水滴はその前に置かれて 10 フレーム進み、後の水滴は年齢 0
+        final DropPool p = engine.pool;
+        assertEquals(2, p.count);
+        for (int i = 0; i < p.count; i++) {
+            final int slot = p.order[i];
+            assertEquals(p.x[slot] == 5f ? 10f : 0f, p.age[slot], 0f);
+        }
+        assertEquals(10f, engine.getTime(), 0f);
+    }
+
+    @Test
+    public void setModeClosesSpawnBatch() {
+        final RippleEngine engine = new RippleEngine(new Random(1L));
+        final InputQueue q = new InputQueue(16);
+        // ZEN の自動落下は中心に 1 滴。モードを変える前に置かれる
+        q.offerSpawnTick();
+        q.offerSetMode(RippleEngine.MODE_HAMON);
+        q.offerStep(2);
+        q.offerSetMode(RippleEngine.MODE_ZEN);
+        q.drain(engine);
+        assertEquals(RippleEngine.MODE_ZEN, engine.getMode());
+        assertEquals(1, engine.liveDropCount());
+        final int slot = engine.pool.order[0];
+        assertEquals(RippleEngine.CX, engine.pool.x[slot], 0f);
+        assertEquals(2f, engine.pool.age[slot], 0f);
+    }
+
+    /** 複数のスレッドから積んでも、スレッドごとの順序が保たれ、取りこぼしも重複も無い。 */
+    @Test
+    public void concurrentProducersKeepPerProducerOrder() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 200_000;
+        final InputQueue q = new InputQueue(64);
+        final AtomicLong rejected = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[producers];
+        for (int t = 0; t < producers; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int seq = 0; seq < perProducer; seq++) {
+                    while (!q.offer(InputQueue.DROP, id, seq)) {
+                        rejected.incrementAndGet();
+                        Thread.yield();
+                    }
+                }
+            }, "producer-" + t);
+            threads[t].start();
+        }
+        start.countDown();
+        final int[] next = new int[producers];
+        final int[] cmd = new int[3];
+        long received = 0;
+        final long deadline = System.nanoTime() + 60_000_000_000L;
+        while (received < (long)producers * perProducer) {
+            assertTrue("timed out after " + received, System.nanoTime() < deadline);
+            if (!q.poll(cmd)) continue;
+            assertEquals(InputQueue.DROP, cmd[0]);
+            assertEquals("producer " + cmd[1], next[cmd[1]], cmd[2]);
+            next[cmd[1]]++;
+            received++;
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(q.isEmpty());
+        assertEquals(rejected.get(), q.getOverflows());
+    }
+}
@@ -0,0 +1,117 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** ProfileSwitcher の予約・差し替えを、手で回す executor で確かめる。 */
+public class ProfileSwitcherTest {
+    /** execute() された仕事をためておき、runNext() で 1 つずつ実行する。 */
+    private static final class ManualExecutor implements java.util.concurrent.Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        @Override public void execute(Runnable r) { tasks.add(r); }
+        void runNext() { tasks.poll().run(); }
+    }
+
+    private final RippleEngine engine = new RippleEngine(new Random(1L), 8);
+    private final ManualExecutor executor = new ManualExecutor();
+    private final ProfileSwitcher switcher = new ProfileSwitcher(engine, executor);
+
+    @Test
+    public void switchesWithoutTablesWhenNothingIsBaked() {
+        // 焼いた列を使わない engine では、次のフレームですぐ切り替わる
+        switcher.request(1);
+        assertTrue(executor.tasks.isEmpty());
+        assertTrue(switcher.applyPending());
+        assertEquals(1, engine.getProfileIndex());
+    }
+
+    @Test
+    public void keepsCurrentProfileUntilTablesAreBuilt() {
+        engine.setFrameSequenceCache(new FrameSequenceCache());
+        switcher.request(2);
+        assertFalse(switcher.applyPending());
+        assertEquals(0, engine.getProfileIndex());
+        executor.runNext();
+        assertTrue(switcher.applyPending());
+        assertEquals(2, engine.getProfileIndex());
+        assertTrue(engine.hasFrameSequences(2));
+        assertEquals(-1, switcher.getPending());
+    }
+
+    @Test
+    public void staleBuildDoesNotDropNewerBuild() {
+        engine.setFrameSequenceCache(new FrameSequenceCache());
+        switcher.request(1);
+        switcher.request(2);
+        // 古い要求の結果が置かれたあとに新しい要求の結果が置かれても、新しい方で切り替わる
+        executor.runNext();
+        executor.runNext();
+        assertTrue(switcher.applyPending());
+        assertEquals(2, engine.getProfileIndex());
+        assertTrue(engine.hasFrameSequences(2));
+        assertFalse(engine.hasFrameSequences(1));
+    }
+
+    @Test
+    public void staleBuildPublishedLastIsIgnored() {
+        engine.setFrameSequenceCache(new FrameSequenceCache());
+        switcher.request(1);
+        switcher.request(2);
+        final Runnable older = executor.tasks.poll();
+        executor.runNext();
+        // 複数スレッドの executor で古い結果があとから届いた場合
+        older.run();
+        assertTrue(switcher.applyPending());
+        assertEquals(2, engine.getProfileIndex());
+    }
+
+    @Test
+    public void switchingBackDoesNotRebuild() {
+        // 作ったテーブルの列は engine のキャッシュに残るので、前のプロファイルへはすぐ戻れる
+        engine.setFrameSequenceCache(new FrameSequenceCache());
+        switchTo(1);
+        switchTo(2);
+        switcher.request(1);
+        assertTrue(executor.tasks.isEmpty());
+        assertTrue(switcher.applyPending());
+        assertEquals(1, engine.getProfileIndex());
+    }
+
+    @Test
+    public void tablesStayWithinEngineBudget() {
+        // ZEN と HAMON の 2 本 (約 240KB) は収まるが、2 プロファイル分は収まらない上限
+        final FrameSequenceCache cache = new FrameSequenceCache(300 * 1024);
+        engine.setFrameSequenceCache(cache);
+        switchTo(1);
+        assertTrue(engine.hasFrameSequences(1));
+        switchTo(2);
+        assertTrue(engine.hasFrameSequences(2));
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getHeapBytes() <= cache.getBudgetBytes());
+    }
+
+    @Test
+    public void rejectedSequencesAreNotRebuilt() {
+        // HAMON の列 1 本が上限を超える場合も、焼けないと分かった印が engine のキャッシュに残るので、
+        // 同じプロファイルを次に要求したときに焼き直さない
+        final FrameSequenceCache cache = new FrameSequenceCache(100 * 1024);
+        engine.setFrameSequenceCache(cache);
+        switchTo(1);
+        assertEquals(1, cache.getSequences());
+        assertTrue(engine.hasFrameSequences(1));
+    }
+
+    /** 切り替えを要求してテーブルを作り、次のフレームで切り替える。 */
+    private void switchTo(int idx) {
+        switcher.request(idx);
+        while (!executor.tasks.isEmpty()) executor.runNext();
+        assertTrue(switcher.applyPending());
+        assertEquals(idx, engine.getProfileIndex());
+    }
+}
@@ -0,0 +1,137 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** RadialProfileCache の LRU と予算、RippleEngine から使ったときに描画が変わらないことを確かめる。 */
+public class RadialProfileCacheTest {
+    /** 長さ 100 の表 1 本の見積もり (4 バイト × 100 + 管理領域 48)。 */
+    private static final int ENTRY_BYTES = 448;
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        final RadialProfileCache cache = new RadialProfileCache(3 * ENTRY_BYTES);
+        final long k1 = RadialProfileCache.key(0, false, 1);
+        final long k2 = RadialProfileCache.key(0, false, 2);
+        final long k3 = RadialProfileCache.key(0, true, 1);
+        final long k4 = RadialProfileCache.key(1, false, 1);
+        cache.insert(k1, 0, 100);
+        cache.insert(k2, 0, 100);
+        cache.insert(k3, 0, 100);
+        // k1 を引いて最新にすると、次に捨てられるのは k2
+        assertTrue(cache.find(k1) >= 0);
+        cache.insert(k4, 0, 100);
+        assertEquals(1L, cache.getEvictions());
+        assertEquals(-1, cache.find(k2));
+        assertTrue(cache.find(k1) >= 0);
+        assertTrue(cache.find(k3) >= 0);
+        assertTrue(cache.find(k4) >= 0);
+        assertEquals(3, cache.getEntries());
+        assertEquals(3L * ENTRY_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void largeEntryEvictsUntilItFits() {
+        final RadialProfileCache cache = new RadialProfileCache(3 * ENTRY_BYTES);
+        for (int age = 0; age < 3; age++) cache.insert(RadialProfileCache.key(0, false, age), 0, 100);
+        // 長さ 250 (1048 バイト) には 3 本分の空きが要る
+        cache.insert(RadialProfileCache.key(0, false, 9), 0, 250);
+        assertEquals(3L, cache.getEvictions());
+        assertEquals(1, cache.getEntries());
+        assertTrue(cache.getBytes() <= cache.getBudgetBytes());
+    }
+
+    @Test
+    public void entryLargerThanBudgetIsNotCached() {
+        final RadialProfileCache cache = new RadialProfileCache(ENTRY_BYTES);
+        cache.insert(RadialProfileCache.key(0, false, 1), 0, 50);
+        assertEquals(-1, cache.insert(RadialProfileCache.key(0, false, 2), 0, 101));
+        assertEquals(1, cache.getEntries());
+        assertEquals(0L, cache.getEvictions());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        final RadialProfileCache cache = new RadialProfileCache();
+        final long k = RadialProfileCache.key(2, true, 40);
+        assertEquals(-1, cache.find(k));
+        cache.insert(k, 5, 10);
+        assertTrue(cache.find(k) >= 0);
+        assertTrue(cache.find(k) >= 0);
+        assertEquals(2L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+        assertEquals(2f / 3f, cache.getHitRate(), 1e-6f);
+        cache.clear();
+        assertEquals(0, cache.getEntries());
+        assertEquals(0L, cache.getBytes());
+        assertEquals(-1, cache.find(k));
+    }
+
+    /** 乱数の参照・追加を LinkedHashMap (アクセス順) の LRU と突き合わせる。同じバケットに並ぶキーの削除も通る。 */
+    @Test
+    public void matchesReferenceLru() {
+        final long budget = 40L * ENTRY_BYTES;
+        final RadialProfileCache cache = new RadialProfileCache(budget);
+        final int maxEntries = (int)(budget / 48);
+        final LinkedHashMap<Long, Integer> model = new LinkedHashMap<>(16, 0.75f, true);
+        long modelBytes = 0;
+        final Random rnd = new Random(17L);
+        for (int op = 0; op < 50_000; op++) {
+            final long key = RadialProfileCache.key(rnd.nextInt(3), rnd.nextBoolean(), rnd.nextInt(120));
+            final boolean hit = cache.find(key) >= 0;
+            assertEquals("op " + op, model.get(key) != null, hit);
+            if (hit) continue;
+            final int len = 1 + rnd.nextInt(300);
+            final long need = 4L * len + 48;
+            final Iterator<Map.Entry<Long, Integer>> it = model.entrySet().iterator();
+            while (it.hasNext() && (modelBytes + need > budget || model.size() == maxEntries)) {
+                modelBytes -= 4L * it.next().getValue() + 48;
+                it.remove();
+            }
+            assertTrue(cache.insert(key, 0, len) >= 0);
+            model.put(key, len);
+            modelBytes += need;
+            assertEquals(model.size(), cache.getEntries());
+            assertEquals(modelBytes, cache.getBytes());
+        }
+        assertTrue(cache.getEvictions() > 0);
+    }
+
+    /** キャッシュあり (小さな予算で追い出しが起きる場合も) とキャッシュなしで、描いたフレームが一致する。 */
+    @Test
+    public void cachedRenderMatchesUncached() {
+        final int[] modes = { RippleEngine.MODE_ZEN, RippleEngine.MODE_HAMON };
+        final long[] budgets = { RadialProfileCache.DEFAULT_BUDGET_BYTES, 2 * 1024 };
+        for (int mode : modes) {
+            for (long budget : budgets) {
+                final RippleEngine cached = new RippleEngine(new Random(3L));
+                final RippleEngine plain = new RippleEngine(new Random(3L));
+                cached.setProfileCache(new RadialProfileCache(budget));
+                plain.setProfileCache(null);
+                final int[] expected = new int[RippleEngine.W * RippleEngine.H];
+                final int[] actual = new int[expected.length];
+                cached.setMode(mode);
+                plain.setMode(mode);
+                for (int f = 0; f < 400; f++) {
+                    if (f % 25 == 0) { cached.spawnTick(); plain.spawnTick(); }
+                    cached.step();
+                    plain.step();
+                    cached.render(actual);
+                    plain.render(expected);
+                    assertArrayEquals("mode " + mode + " budget " + budget + " frame " + f, expected, actual);
+                }
+                // 既定の予算では表が再利用され、小さな予算では追い出しが起きる
+                final RadialProfileCache cache = cached.getProfileCache();
+                assertTrue(budget < RadialProfileCache.DEFAULT_BUDGET_BYTES ? cache.getEvictions() > 0 : cache.getHits() > 0);
+            }
+        }
+    }
+}
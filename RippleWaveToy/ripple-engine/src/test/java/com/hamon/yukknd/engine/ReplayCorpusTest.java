@@ -0,0 +1,61 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * replay/corpus/*.txt と replay/default.txt の各シーンを float パスで描き、
+ * 固定小数点パスと焼いたフレームの再生がそれと各 LED で ±1 以内に収まることを確かめる。
+ * 基準は同じ実行の float パスなので、コーパスにゴールデンファイルは要らない。
+ */
+public class ReplayCorpusTest {
+    private static final File CORPUS = new File("replay/corpus");
+    private static final File DEFAULT_SCRIPT = new File("replay/default.txt");
+
+    @Test
+    public void fixedPointPathWithinOneLevelOfFloat() throws IOException {
+        for (File script : scripts()) assertWithinOneLevel(script, "fixed");
+    }
+
+    @Test
+    public void bakedPlaybackWithinOneLevelOfFloat() throws IOException {
+        for (File script : scripts()) assertWithinOneLevel(script, "baked");
+    }
+
+    private static List<File> scripts() {
+        final File[] files = CORPUS.listFiles((dir, name) -> name.endsWith(".txt"));
+        assertTrue("no corpus in " + CORPUS.getAbsolutePath(), files != null && files.length > 0);
+        Arrays.sort(files);
+        final List<File> scripts = new ArrayList<>(Arrays.asList(files));
+        scripts.add(DEFAULT_SCRIPT);
+        return scripts;
+    }
+
+    private static void assertWithinOneLevel(File file, String path) throws IOException {
+        final ByteArrayOutputStream reference = new ByteArrayOutputStream();
+        ReplayDriver.record(load(file), "float", reference);
+        final GoldenComparator.Result result =
+                ReplayDriver.check(load(file), path, new ByteArrayInputStream(reference.toByteArray()), 1);
+        assertTrue(file.getName() + " " + path + ": " + result, result.passed());
+        assertTrue(file.getName() + ": no frames compared", result.framesCompared > 0);
+    }
+
+    private static ReplayScript load(File file) throws IOException {
+        try (Reader r = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return ReplayScript.parse(r);
+        }
+    }
+}
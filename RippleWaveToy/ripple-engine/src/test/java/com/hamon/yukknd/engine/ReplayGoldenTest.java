@@ -0,0 +1,51 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * replay/default.txt を ReplayDriver で実行し、replay/default.hmf とピクセルごとに比べる。
+ * float パスは完全一致、固定小数点パスと焼いたフレームの再生は ±1 以内 (水滴が重なると丸めが水滴ごとになる)。
+ * 描画を意図して変えたときは ./gradlew :ripple-engine:replayRecord でゴールデンを作り直す。
+ */
+public class ReplayGoldenTest {
+    private static final File SCRIPT = new File("replay/default.txt");
+    private static final File GOLDEN = new File("replay/default.hmf");
+
+    @Test
+    public void floatPathMatchesGoldenExactly() throws IOException {
+        assertGolden("float", 0);
+    }
+
+    @Test
+    public void fixedPointPathWithinOneLevel() throws IOException {
+        assertGolden("fixed", 1);
+    }
+
+    @Test
+    public void bakedPlaybackWithinOneLevel() throws IOException {
+        assertGolden("baked", 1);
+    }
+
+    private static void assertGolden(String path, int tolerance) throws IOException {
+        final ReplayScript script;
+        try (Reader r = new InputStreamReader(new FileInputStream(SCRIPT), StandardCharsets.UTF_8)) {
+            script = ReplayScript.parse(r);
+        }
+        final GoldenComparator.Result result;
+        try (InputStream in = new FileInputStream(GOLDEN)) {
+            result = ReplayDriver.check(script, path, in, tolerance);
+        }
+        assertTrue(path + ": " + result, result.passed());
+        assertTrue(path + ": no frames compared", result.framesCompared > 0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.hamon.yukknd.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * RippleMath のテーブルの誤差と、テーブルで描いたフレームが Math.exp で計算した float パスから
+ * 各 LED で ±1 レベル (2040 段階) 以内に収まることを確かめる。
+ */
+public class RippleMathTest {
+    private static final int SCENES = 600;
+    /** RippleEngine の HAMON の後続リングの数と間隔 (px)。 */
+    private static final int TRAILS = 3;
+    private static final double TRAIL_DELTA = 3.8;
+
+    @Test
+    public void tablesStayWithinErrorBound() {
+        final RippleMath math = RippleMath.DEFAULT;
+        for (int i = 0; i <= 100_000; i++) {
+            float u = i * 0.0005f;
+            assertEquals("gauss(" + u + ")", Math.exp(-0.5 * u), math.gauss(u), math.maxError);
+            assertEquals("expNeg(" + u + ")", Math.exp(-u), math.expNeg(u), math.maxError);
+        }
+        for (int age = 0; age <= (int)RippleEngine.MAX_AGE_FRAMES; age++) {
+            assertEquals("envelope(" + age + ")", exactEnvelope(age), math.envelope(age), 2f * math.maxError);
+        }
+    }
+
+    @Test
+    public void sparsePathWithinOneLevelOfExactFloat() {
+        assertScenesWithinOneLevel(true);
+    }
+
+    @Test
+    public void fullScanPathWithinOneLevelOfExactFloat() {
+        assertScenesWithinOneLevel(false);
+    }
+
+    /** 置いた水滴の値と年齢。RippleEngine の中は見ずに、テスト側で同じ水滴を追う。 */
+    private static final class Drop {
+        final double x, y, weight, sigmaScale, speedScale, dampingScale;
+        int age;
+        Drop(double x, double y, double weight, double sigmaScale, double speedScale, double dampingScale) {
+            this.x = x; this.y = y; this.weight = weight;
+            this.sigmaScale = sigmaScale; this.speedScale = speedScale; this.dampingScale = dampingScale;
+        }
+    }
+
+    /** ZEN / HAMON / RAIN × 全プロファイルで、位置・倍率・年齢を乱数で決めたシーンを描いて比べる (水滴は MAX_DROPS まで)。 */
+    private static void assertScenesWithinOneLevel(boolean sparse) {
+        final Random rnd = new Random(20250831L);
+        final int[] frame = new int[RippleEngine.W * RippleEngine.H];
+        final int[] modes = { RippleEngine.MODE_ZEN, RippleEngine.MODE_HAMON, RippleEngine.MODE_RAIN };
+        int worst = 0;
+        for (int scene = 0; scene < SCENES; scene++) {
+            final RippleEngine engine = new RippleEngine(new Random(scene));
+            engine.setSparseRender(sparse);
+            engine.setMode(modes[scene % modes.length]);
+            engine.setProfile((scene / modes.length) % engine.getProfileCount());
+            final List<Drop> drops = new ArrayList<>();
+            final int count = 1 + rnd.nextInt(RippleEngine.MAX_DROPS);
+            for (int d = 0; d < count; d++) {
+                final Drop drop = d == 0
+                        ? new Drop(RippleEngine.CX, RippleEngine.CY, 1f, 1f, 1f, 1f)
+                        : new Drop(rnd.nextFloat() * 24f, rnd.nextFloat() * 24f,
+                                0.6f + 0.6f * rnd.nextFloat(), 0.8f + 0.6f * rnd.nextFloat(),
+                                0.8f + 0.4f * rnd.nextFloat(), 0.9f + 0.3f * rnd.nextFloat());
+                engine.addDrop((float)drop.x, (float)drop.y, (float)drop.weight, (float)drop.sigmaScale,
+                        (float)drop.speedScale, (float)drop.dampingScale);
+                drops.add(drop);
+                for (int k = rnd.nextInt(30); k > 0; k--) {
+                    engine.step();
+                    for (Drop dr : drops) dr.age++;
+                }
+            }
+            engine.render(frame);
+            final int[] expected = renderExact(engine.getProfile(), engine.getMode() == RippleEngine.MODE_HAMON, drops);
+            for (int i = 0; i < frame.length; i++) {
+                int diff = Math.abs(frame[i] - expected[i]);
+                assertTrue("scene " + scene + " pixel " + i + ": " + frame[i] + " vs " + expected[i], diff <= 1);
+                worst = Math.max(worst, diff);
+            }
+        }
+        assertTrue(worst <= 1);
+    }
+
+    /** 元の float パス: シェル・envelope・距離減衰をすべて Math.exp で計算する。 */
+    private static int[] renderExact(Profile pf, boolean hamon, List<Drop> drops) {
+        final int[] out = new int[RippleEngine.W * RippleEngine.H];
+        for (int n = 0; n < RippleGeometry.ACTIVE.length; n++) {
+            double sum = 0.0;
+            for (Drop d : drops) {
+                final double dx = RippleGeometry.ACTIVE_X[n] - d.x;
+                final double dy = RippleGeometry.ACTIVE_Y[n] - d.y;
+                final double r = Math.sqrt(dx * dx + dy * dy);
+                final double r0 = pf.speed * d.speedScale * d.age;
+                final double sig0 = pf.sigma * d.sigmaScale;
+                double s = exactEnvelope(d.age / d.dampingScale) * d.weight * gauss(r - r0, sig0);
+                if (hamon) {
+                    for (int k = 1; k <= TRAILS; k++) {
+                        final double rk = r0 - k * TRAIL_DELTA;
+                        if (rk < 0.0) break;
+                        final double sigk = pf.sigma * (1.0 + 0.25 * k) * d.sigmaScale;
+                        final double envk = exactEnvelope(Math.max(0.0, d.age - 2.0 * k) / d.dampingScale);
+                        s += Math.pow(0.72, k) * d.weight * envk * gauss(r - rk, sigk);
+                    }
+                }
+                sum += Math.exp(-pf.damping / d.dampingScale * r) * s;
+            }
+            double v = Math.min(1.0, Math.max(0.0, 1.10 * sum * RippleGeometry.ACTIVE_MASK[n]));
+            out[RippleGeometry.ACTIVE[n]] = (int)(v * RippleEngine.MAX_BRIGHTNESS + 0.5);
+        }
+        return out;
+    }
+
+    private static double gauss(double dr, double sigma) {
+        return Math.exp(-0.5 * dr * dr / (sigma * sigma));
+    }
+
+    private static double exactEnvelope(double age) {
+        return (1.0 - Math.exp(-age / 4.0)) * Math.exp(-0.0065 * age);
+    }
+}